@@ -0,0 +1,23 @@
+#!/bin/sh
+#
+# Runs awsproxy with the fast start options:
+# - uses the class data sharing archive awsproxy.jsa when it was generated
+#   by the build (mvn package -Pappcds), so SDK classes are mapped instead of loaded
+# - compiles only with the client compiler for short tasks
+#
+# Usage: awsproxy.sh <task> [<task params>]
+
+DIR=`dirname "$0"`
+JAVA_OPTS=""
+
+if [ -f "$DIR/awsproxy.jsa" ]; then
+	JAVA_OPTS="$JAVA_OPTS -XX:SharedArchiveFile=$DIR/awsproxy.jsa -Xshare:auto"
+fi
+
+case "$1" in
+	s3createfolder)
+		JAVA_OPTS="$JAVA_OPTS -XX:TieredStopAtLevel=1"
+		;;
+esac
+
+exec java $JAVA_OPTS -jar "$DIR/awsproxy.jar" "$@"
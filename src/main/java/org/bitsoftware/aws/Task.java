@@ -10,5 +10,10 @@ package org.bitsoftware.aws;
  */
 public interface Task
 {
-	void run();
+	/**
+	 * Run the task.
+	 *
+	 * @return true if the task completed successfully
+	 */
+	boolean run();
 }
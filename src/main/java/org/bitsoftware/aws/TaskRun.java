@@ -29,7 +29,8 @@ public class TaskRun
     	try
     	{
     		Task task = TaskFactory.getInstance().getTask(taskName, taskParams);
-    		task.run();
+    		if(!task.run())
+    			System.exit(1);
     	}
     	catch(InvalidTaskParamException e)
     	{
@@ -3,11 +3,23 @@
  */
 package org.bitsoftware.aws.task;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 
 import org.bitsoftware.aws.Task;
+import org.bitsoftware.aws.util.RequestTracer;
+import org.bitsoftware.aws.util.TraceWriter;
 import org.bitsoftware.aws.util.Utils;
 
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.util.StringUtils;
+
 /**
  * @author Robert Hindli
  * @date Apr 13, 2017
@@ -17,11 +29,17 @@ abstract class AbstractTask implements Task
 {
 	/** Task parameters <paramName, paramValue> */
 	protected HashMap<String, String> params = new HashMap<>();
+
+	/** Request tracer, null when tracing is off */
+	private RequestTracer tracer;
+	private TraceWriter traceWriter;
 	
 	public AbstractTask(String[] params) throws InvalidTaskParamException
 	{
 		parseParams(params);
+		setDefaults();
 		validateParams();
+		validateTraceParams();
 	}
 
 	private void parseParams(String[] params)
@@ -39,25 +57,219 @@ abstract class AbstractTask implements Task
 		}
 	}
 	
+	/** Parameter for only showing what the task would do */
+	protected static final String Param_Dry_Run = "-dryrun";
+
+	/** Parameters for tracing the requests sent to AWS */
+	protected static final String Param_Trace = "-trace";
+	protected static final String Param_Trace_Sample = "-tracesample";
+
+	protected static final String Trace_Params_Usage =
+		"[-trace:<file>]            : Optional file where the phases of the requests sent to AWS are traced,\n" +
+		"                             in Chrome trace event format (chrome://tracing, ui.perfetto.dev).\n" +
+		"[-tracesample:<fraction>]  : Optional fraction of the files traced, between 0 and 1.\n" +
+		"                             Default value if not specified is 1.\n";
+
+	private double traceSampleRate;
+
 	protected abstract String getParamsUsage();
 	
+	/**
+	 * Set the default parameter values, before the parameters are validated.
+	 * Parameters are validated from this constructor, before the field
+	 * initializers of the task run, so defaults are set here instead.
+	 */
+	protected void setDefaults()
+	{
+	}
+
 	protected abstract void validateParams() throws InvalidTaskParamException;
 
-	public void run()
+	private void validateTraceParams() throws InvalidTaskParamException
+	{
+		traceSampleRate = 1;
+
+		String sample = params.get(Param_Trace_Sample);
+		if(sample != null)
+		{
+			try
+			{
+				traceSampleRate = Double.parseDouble(sample);
+			}
+			catch(NumberFormatException e)
+			{
+				traceSampleRate = -1;
+			}
+
+			if(traceSampleRate < 0 || traceSampleRate > 1)
+			{
+				String err = "Invalid trace sample fraction. See usage.";
+				String helpMsg = getParamsUsage();
+				throw new InvalidTaskParamException(err, helpMsg);
+			}
+		}
+
+		if(params.containsKey(Param_Trace) && StringUtils.isNullOrEmpty(params.get(Param_Trace)))
+		{
+			String err = "Missing trace file. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+	}
+
+	public boolean run()
 	{
     	long start = System.currentTimeMillis();
 		System.out.println(getDescription() + " ...");
     	
+		if(!startTrace())
+			return false;
     	
-    	runImpl();
+    	boolean success;
+    	try
+    	{
+    		success = runImpl();
+    	}
+    	finally
+    	{
+    		stopTrace();
+    	}
 
     	long duration = System.currentTimeMillis() - start;
     	String totalDuration = Utils.printDurationFromMillis(duration);
-		System.out.println("Completed in " + totalDuration + ".");
+		System.out.println("Completed" + (success ? "" : " with errors") + " in " + totalDuration + ".");
 
+		return success;
 	}
 	
-	protected abstract void runImpl();
+	/**
+	 * Run the task.
+	 *
+	 * @return true if the task completed successfully
+	 */
+	protected abstract boolean runImpl();
 	
 	protected abstract String getDescription();
+
+	/** Get the request tracer, null when tracing is off */
+	protected RequestTracer getTracer()
+	{
+		return tracer;
+	}
+
+	/**
+	 * Attach the request tracer, if tracing is on, to a client being built.
+	 *
+	 * @param builder client builder
+	 * @param clientConfig client configuration, used by the builder
+	 */
+	protected void traceClient(AwsClientBuilder<?, ?> builder, ClientConfiguration clientConfig)
+	{
+		if(tracer == null)
+			return;
+
+		tracer.configure(clientConfig);
+		builder.withClientConfiguration(clientConfig);
+		builder.withRequestHandlers(tracer);
+		builder.withMetricsCollector(tracer.getMetricCollector());
+	}
+
+	private boolean startTrace()
+	{
+		String traceFile = params.get(Param_Trace);
+		if(traceFile == null)
+			return true;
+
+		try
+		{
+			traceWriter = new TraceWriter(new File(traceFile));
+			tracer = new RequestTracer(traceWriter, traceSampleRate);
+			return true;
+		}
+		catch(IOException e)
+		{
+			System.err.println("Cannot write trace file: " + e.getMessage());
+			return false;
+		}
+	}
+
+	private void stopTrace()
+	{
+		if(traceWriter == null)
+			return;
+
+		try
+		{
+			traceWriter.close();
+
+			if(traceWriter.getDroppedEvents() > 0)
+				System.err.println(traceWriter.getDroppedEvents() + " trace event(s) dropped.");
+		}
+		catch(IOException e)
+		{
+			System.err.println("Cannot write trace file: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Create an S3 client, traced if tracing is on
+	 *
+	 * @param accessKey AWS access key
+	 * @param secretKey AWS secret key
+	 * @param regionName AWS region name
+	 * @param clientConfig client configuration
+	 */
+	protected AmazonS3 createS3Client(String accessKey, String secretKey, String regionName, ClientConfiguration clientConfig)
+	{
+		BasicAWSCredentials awsCreds = new BasicAWSCredentials(accessKey, secretKey);
+		AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard()
+		                        .withCredentials(new AWSStaticCredentialsProvider(awsCreds))
+		                        .withRegion(regionName)
+		                        .withClientConfiguration(clientConfig);
+
+		traceClient(builder, clientConfig);
+
+		return builder.build();
+	}
+
+	/**
+	 * Get the key of the object a file is uploaded to
+	 *
+	 * @param directoryPath S3 folder path, null for the bucket root
+	 * @param relativePath path of the file's folder relative to the uploaded folder, null for none
+	 * @param name file name
+	 */
+	protected static String getKeyName(String directoryPath, String relativePath, String name)
+	{
+		String keyName = "";
+		
+		if(!StringUtils.isNullOrEmpty(directoryPath))
+			keyName += (directoryPath + "/");
+		
+		if(!StringUtils.isNullOrEmpty(relativePath))
+			keyName += (relativePath + "/");
+		
+		keyName += name;
+
+		return keyName;
+	}
+
+	/** Parse an integer parameter value, returning -1 if it is not a valid number */
+	protected static int parseInt(String value)
+	{
+		try
+		{
+			return Integer.parseInt(value);
+		}
+		catch(NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	/** Check if the task should only show what it would do */
+	protected boolean isDryRun()
+	{
+		return params.containsKey(Param_Dry_Run);
+	}
 }
@@ -0,0 +1,28 @@
+/**
+ * 
+ */
+package org.bitsoftware.aws.task;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+/**
+ * Bucket files are uploaded to, with the client for its region
+ */
+class Destination
+{
+	String BucketName;
+	String RegionName;
+	AmazonS3 S3Client;
+
+	Destination(String bucketName, String regionName)
+	{
+		this.BucketName = bucketName;
+		this.RegionName = regionName;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return BucketName + "@" + RegionName;
+	}
+}
@@ -0,0 +1,346 @@
+/**
+ *
+ */
+package org.bitsoftware.aws.task;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Watches a folder for created or modified files and hands each file over
+ * once it stopped changing for the debounce window.
+ *
+ * Bursts of events for the same path are coalesced into a single upload.
+ * A file is considered stable when no event was received for it during the
+ * debounce window and its size and last modified time did not change.
+ *
+ * The folder is registered before it is scanned for the initial upload, so
+ * changes made meanwhile are queued and picked up when watching starts. The
+ * size and last modified time of each uploaded file are kept, so files that
+ * did not change since they were uploaded are skipped, including when the
+ * whole folder is scanned again because events were lost.
+ */
+class DirectoryWatcher implements Closeable
+{
+	private final Path root;
+	private final boolean recursive;
+	private final long debounceMillis;
+
+	private WatchService watchService;
+
+	/** Registered folders <watchKey, folder> */
+	private final HashMap<WatchKey, Path> keys = new HashMap<>();
+
+	/** Registered folders, for checking registration without walking all keys */
+	private final HashSet<Path> folders = new HashSet<>();
+
+	/** Files waiting to become stable <file, state> */
+	private final HashMap<Path, FileState> pending = new HashMap<>();
+
+	/** Files uploaded <file, state when uploaded>, updated by the upload threads */
+	private final Map<Path, FileState> uploaded = new ConcurrentHashMap<>();
+
+	/** Files being uploaded, kept pending until their upload ends */
+	private final Set<Path> uploading = ConcurrentHashMap.newKeySet();
+
+	/** Constructor */
+	DirectoryWatcher(File root, boolean recursive, long debounceMillis)
+	{
+		this.root = root.toPath();
+		this.recursive = recursive;
+		this.debounceMillis = debounceMillis;
+	}
+
+	/** Start queueing the changes of the folder, before it is scanned */
+	void start() throws IOException
+	{
+		watchService = root.getFileSystem().newWatchService();
+		register(root, false);
+	}
+
+	/**
+	 * Watch the folder until the current thread is interrupted or
+	 * the root folder is no longer accessible.
+	 *
+	 * @param handler uploads a file that stopped changing, returning true if uploaded
+	 * @param executor runs the handler, so that events are drained during uploads
+	 */
+	void watch(Predicate<File> handler, Executor executor) throws IOException
+	{
+		while(!keys.isEmpty() && !Thread.currentThread().isInterrupted())
+		{
+			WatchKey key;
+			try
+			{
+				key = watchService.poll(getPollTimeout(System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+
+			// drain all keys signalled so far before looking at stable files
+			while(key != null)
+			{
+				processEvents(key);
+				key = watchService.poll();
+			}
+
+			for(File f : takeStableFiles(System.currentTimeMillis()))
+			{
+				FileState state = new FileState(f);
+				Path path = f.toPath();
+
+				uploading.add(path);
+				executor.execute(() ->
+				{
+					try
+					{
+						if(handler.test(f))
+							uploaded.put(path, state);
+					}
+					finally
+					{
+						uploading.remove(path);
+					}
+				});
+			}
+		}
+	}
+
+	/** Stop watching */
+	@Override
+	public void close() throws IOException
+	{
+		keys.clear();
+		folders.clear();
+		pending.clear();
+
+		if(watchService != null)
+			watchService.close();
+	}
+
+	/**
+	 * Record a file uploaded outside the watcher, so that it is only uploaded again once it changes
+	 *
+	 * @param file uploaded file
+	 * @param size size of the file when its upload started
+	 * @param lastModified last modified time of the file when its upload started
+	 */
+	void uploaded(File file, long size, long lastModified)
+	{
+		uploaded.put(file.toPath(), new FileState(size, lastModified));
+	}
+
+	private void processEvents(WatchKey key) throws IOException
+	{
+		Path dir = keys.get(key);
+
+		for(WatchEvent<?> event : key.pollEvents())
+		{
+			WatchEvent.Kind<?> kind = event.kind();
+
+			if(kind == OVERFLOW)
+			{
+				// events were lost; look again at everything under the root
+				register(root, true);
+				continue;
+			}
+
+			if(dir == null)
+				continue;
+
+			Path child = dir.resolve((Path)event.context());
+
+			if(kind == ENTRY_DELETE)
+			{
+				pending.remove(child);
+				uploaded.remove(child);
+			}
+			else if(Files.isDirectory(child))
+			{
+				if(kind == ENTRY_CREATE && recursive)
+				{
+					// files may have been written before the watcher was in place
+					register(child, true);
+				}
+			}
+			else if(kind == ENTRY_CREATE || kind == ENTRY_MODIFY)
+			{
+				touch(child, System.currentTimeMillis());
+			}
+		}
+
+		if(!key.reset())
+		{
+			folders.remove(keys.remove(key));
+		}
+	}
+
+	/**
+	 * Register a folder, and its sub folders when recursive.
+	 *
+	 * @param markFiles mark the files changed since they were uploaded as pending upload
+	 */
+	private void register(Path dir, boolean markFiles) throws IOException
+	{
+		if(folders.add(dir))
+		{
+			WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+			keys.put(key, dir);
+		}
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir))
+		{
+			for (Path entry : stream)
+			{
+				if(Files.isDirectory(entry))
+				{
+					if(recursive)
+						register(entry, markFiles);
+				}
+				else if(markFiles && !new FileState(entry.toFile()).equals(uploaded.get(entry)))
+				{
+					touch(entry, System.currentTimeMillis());
+				}
+			}
+		}
+	}
+
+	/** Record an event for a file, restarting its debounce window */
+	void touch(Path file, long now)
+	{
+		FileState p = pending.get(file);
+		if(p == null)
+		{
+			p = new FileState(file.toFile());
+			pending.put(file, p);
+		}
+		else
+		{
+			p.update(file.toFile());
+		}
+
+		p.LastEvent = now;
+	}
+
+	/** Take the pending files that stopped changing */
+	ArrayList<File> takeStableFiles(long now)
+	{
+		ArrayList<File> stable = new ArrayList<>();
+
+		Iterator<Map.Entry<Path, FileState>> it = pending.entrySet().iterator();
+		while(it.hasNext())
+		{
+			Map.Entry<Path, FileState> entry = it.next();
+			FileState p = entry.getValue();
+
+			if(now - p.LastEvent < debounceMillis)
+				continue;
+
+			File f = entry.getKey().toFile();
+			if(!f.isFile())
+			{
+				it.remove();
+				continue;
+			}
+
+			FileState current = new FileState(f);
+
+			// still being written without producing events, or still being uploaded: wait another window
+			if(!current.equals(p) || uploading.contains(entry.getKey()))
+			{
+				p.update(f);
+				p.LastEvent = now;
+				continue;
+			}
+
+			it.remove();
+
+			// e.g. events queued during the initial upload for files it uploaded
+			if(!current.equals(uploaded.get(entry.getKey())))
+				stable.add(f);
+		}
+
+		return stable;
+	}
+
+	private long getPollTimeout(long now)
+	{
+		if(pending.isEmpty())
+			return debounceMillis;
+
+		long oldest = Long.MAX_VALUE;
+		for(FileState p : pending.values())
+		{
+			oldest = Math.min(oldest, p.LastEvent);
+		}
+
+		long timeout = oldest + debounceMillis - now;
+		return Math.max(1, timeout);
+	}
+
+	/** Size and last modified time of a file */
+	private static class FileState
+	{
+		long Size;
+		long LastModified;
+		long LastEvent;
+
+		FileState(File f)
+		{
+			update(f);
+		}
+
+		FileState(long size, long lastModified)
+		{
+			this.Size = size;
+			this.LastModified = lastModified;
+		}
+
+		void update(File f)
+		{
+			Size = f.length();
+			LastModified = f.lastModified();
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(!(o instanceof FileState))
+				return false;
+
+			FileState s = (FileState)o;
+			return Size == s.Size && LastModified == s.LastModified;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Long.hashCode(Size) * 31 + Long.hashCode(LastModified);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/**
+ * 
+ */
+package org.bitsoftware.aws.task;
+
+import java.io.File;
+
+/**
+ * File found for upload
+ */
+class File2Upload
+{
+	File File;
+	String RelativePath;
+	int Level;
+	long Size;
+
+	File2Upload(File f, String relativePath, int level)
+	{
+		this.File = f;
+		this.RelativePath = relativePath;
+		this.Level = level;
+		this.Size = f.length();
+	}
+	
+	/** Get the path of the file relative to the uploaded root folder */
+	String getRelativeName()
+	{
+		if(RelativePath == null || RelativePath.isEmpty())
+			return File.getName();
+		
+		return RelativePath + "/" + File.getName();
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package org.bitsoftware.aws.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.bitsoftware.aws.util.Utils;
+
+/**
+ * Files under a root file or folder, with their paths relative to the root
+ */
+class FileTree
+{
+	private final File root;
+	private final boolean recursive;
+
+	/**
+	 * Constructor
+	 *
+	 * @param root file, or folder whose files are listed
+	 * @param recursive true to list the files of the sub folders too
+	 */
+	FileTree(File root, boolean recursive)
+	{
+		this.root = root;
+		this.recursive = recursive;
+	}
+
+	/** Get the files, null if a folder could not be read */
+	ArrayList<File2Upload> getFiles()
+	{
+		return getFiles(root, 0);
+	}
+
+	private ArrayList<File2Upload> getFiles(File file, int level)
+	{
+		ArrayList<File2Upload> files = new ArrayList<>();
+
+		if(file.isFile())
+		{
+			String relativePath = getRelativePath(file);
+
+			File2Upload file2Upload = new File2Upload(file, relativePath, level);
+			files.add(file2Upload);
+		}
+		else if(level == 0 || recursive)
+		{
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.toPath()))
+			{
+				for (Path entry : stream)
+				{
+					File fileEntry = entry.toFile();
+					ArrayList<File2Upload> dirFiles = getFiles(fileEntry, level+1);
+					if(dirFiles == null)
+						return null;
+
+					files.addAll(dirFiles);
+				}
+			}
+			catch (DirectoryIteratorException e)
+			{
+				System.err.println(e.getCause().getMessage());
+				return null;
+			}
+			catch(IOException e)
+			{
+				System.err.println(e.getMessage());
+				return null;
+			}
+		}
+
+		return files;
+	}
+
+	/** Get the path of the file's folder relative to the root folder */
+	String getRelativePath(File file)
+	{
+		String rootDirPath = root.getAbsolutePath();
+		if(root.isFile())
+			rootDirPath = root.getParentFile().getAbsolutePath();
+
+		String filePath = file.getParentFile().getAbsolutePath();
+		String relativePath = filePath.replace(rootDirPath, "");
+
+		return Utils.normalizePath(relativePath);
+	}
+}
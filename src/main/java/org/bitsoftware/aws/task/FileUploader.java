@@ -0,0 +1,209 @@
+/**
+ *
+ */
+package org.bitsoftware.aws.task;
+
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bitsoftware.aws.util.DecorrelatedJitterBackoff;
+import org.bitsoftware.aws.util.LatencyTracker;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.client.builder.ExecutorFactory;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import com.amazonaws.services.s3.transfer.Upload;
+
+/**
+ * Uploads files to S3, retrying failed uploads with decorrelated jitter backoff.
+ *
+ * Objects not bigger than the hedge size are put with a single request, and a
+ * duplicate request is issued when the first one takes longer than the p95
+ * latency observed so far. The first request to complete wins.
+ */
+class FileUploader
+{
+	/** Delay before the first task level retry, in milliseconds */
+	static final long Retry_Base_Delay = 1000;
+	/** Maximum delay between task level retries, in milliseconds */
+	static final long Retry_Max_Delay = 30000;
+
+	/** Number of PUT latencies kept for computing the hedging threshold */
+	private static final int Latency_Samples = 256;
+	/** Number of PUT latencies needed before hedging starts */
+	private static final int Latency_Min_Samples = 20;
+
+	private final AmazonS3 s3Client;
+	private final int retries;
+	private final long hedgeMaxSize;
+
+	private final TransferManager tm;
+	private final ExecutorService hedgeExecutor;
+	private final LatencyTracker putLatency = new LatencyTracker(Latency_Samples, Latency_Min_Samples);
+	private final DecorrelatedJitterBackoff backoff = new DecorrelatedJitterBackoff(Retry_Base_Delay, Retry_Max_Delay);
+
+	/**
+	 * Constructor
+	 *
+	 * @param s3Client S3 client
+	 * @param retries number of times a failed upload is retried
+	 * @param hedgeMaxSize size in bytes up to which PUT requests are hedged, 0 for no hedging
+	 */
+	FileUploader(AmazonS3 s3Client, int retries, long hedgeMaxSize)
+	{
+		this.s3Client = s3Client;
+		this.retries = retries;
+		this.hedgeMaxSize = hedgeMaxSize;
+
+		this.tm = TransferManagerBuilder.standard()
+				.withS3Client(s3Client)
+				.withExecutorFactory(new ExecutorFactory()
+				{
+					@Override
+					public ExecutorService newExecutor()
+					{
+						return Executors.newFixedThreadPool(20);
+					}
+				})
+				.build()
+				;
+
+		this.hedgeExecutor = hedgeMaxSize > 0 ? Executors.newCachedThreadPool() : null;
+	}
+
+	/**
+	 * Upload a file
+	 *
+	 * @param por request for uploading the file; a copy of it is sent on each attempt
+	 * @return true if the file was uploaded
+	 */
+	boolean upload(PutObjectRequest por)
+	{
+		long delay = 0;
+
+		for(int attempt = 0; ; attempt++)
+		{
+	        try
+	        {
+				if(hedgeExecutor != null && por.getFile().length() <= hedgeMaxSize)
+					putHedged(por);
+				else
+					transfer(por.clone());
+
+				return true;
+	        }
+	        catch(InterruptedException e)
+	        {
+	        	Thread.currentThread().interrupt();
+	        	System.err.println("Upload of \"" + por.getKey() + "\" interrupted.");
+	        	return false;
+	        }
+	        catch (Exception e)
+	        {
+	            System.err.println(e.getMessage());
+
+	            if(attempt >= retries || !isRetryable(e))
+	            	return false;
+	        }
+
+        	delay = backoff.nextDelay(delay);
+        	System.err.println("Retrying upload of \"" + por.getKey() + "\" in " + delay + " milliseconds ...");
+
+        	try
+        	{
+        		Thread.sleep(delay);
+        	}
+        	catch(InterruptedException e)
+        	{
+	        	Thread.currentThread().interrupt();
+	        	return false;
+        	}
+		}
+	}
+
+	/** Release the threads used for uploading */
+	void shutdown()
+	{
+		tm.shutdownNow(false);
+
+		if(hedgeExecutor != null)
+			hedgeExecutor.shutdownNow();
+	}
+
+	private void transfer(PutObjectRequest por) throws InterruptedException
+	{
+		Upload upload = tm.upload(por);
+		upload.waitForCompletion();
+	}
+
+	private void putHedged(PutObjectRequest por) throws InterruptedException, ExecutionException
+	{
+		CompletionService<Object> cs = new ExecutorCompletionService<>(hedgeExecutor);
+
+		long start = System.currentTimeMillis();
+		long hedgeAfter = putLatency.getPercentile(95);
+
+		Future<Object> primary = cs.submit(() -> s3Client.putObject(por.clone()));
+		Future<Object> hedge = null;
+
+		try
+		{
+			Future<Object> done = hedgeAfter > 0 ? cs.poll(hedgeAfter, TimeUnit.MILLISECONDS) : cs.take();
+
+			if(done == null)
+			{
+				hedge = cs.submit(() -> s3Client.putObject(por.clone()));
+				done = cs.take();
+			}
+
+			try
+			{
+				done.get();
+			}
+			catch(ExecutionException e)
+			{
+				// the other request may still succeed
+				if(hedge == null)
+					throw e;
+
+				cs.take().get();
+			}
+
+			putLatency.record(System.currentTimeMillis() - start);
+		}
+		finally
+		{
+			primary.cancel(true);
+
+			if(hedge != null)
+				hedge.cancel(true);
+		}
+	}
+
+	/** Check if a failed upload may succeed when retried */
+	static boolean isRetryable(Exception e)
+	{
+		Throwable cause = e;
+		if(e instanceof ExecutionException && e.getCause() != null)
+			cause = e.getCause();
+
+		if(cause instanceof AmazonServiceException)
+		{
+			AmazonServiceException ase = (AmazonServiceException)cause;
+			int status = ase.getStatusCode();
+
+			return status >= 500 || status == 408 || RetryUtils.isThrottlingException(ase);
+		}
+
+		return true;
+	}
+}
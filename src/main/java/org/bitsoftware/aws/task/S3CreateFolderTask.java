@@ -6,12 +6,10 @@ package org.bitsoftware.aws.task;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.regions.Region;
-import com.amazonaws.regions.RegionUtils;
+import org.bitsoftware.aws.util.Utils;
+
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.util.StringUtils;
@@ -48,7 +46,9 @@ class S3CreateFolderTask extends AbstractTask
 	    	"-s:<awssecretkey>          : AWS secret key.\n" +
 	    	"-r:<awsregionname>         : AWS region name. E.g. eu-west-1, eu-central-1\n" +
 	    	"-b:<bucket>                : S3 bucket where file will be uploaded.\n" +
-	    	"-f:<foldername>            : Folder name.\n";
+	    	"-f:<foldername>            : Folder name.\n" +
+	    	"[-dryrun]                  : Optional indication to only show what would be created.\n" +
+	    	Trace_Params_Usage;
 		
 		return retVal;
 	}
@@ -98,23 +98,9 @@ class S3CreateFolderTask extends AbstractTask
 			String helpMsg = getParamsUsage();
 			throw new InvalidTaskParamException(err, helpMsg);
 		}
-		else
+		else if(!Utils.isValidRegionName(p_awsRegionName))
 		{
-			Region awsRegion = null;
-			
-			try
-			{
-				awsRegion = RegionUtils.getRegion(p_awsRegionName);
-			}
-			catch(Exception e)
-			{
-				
-			}
-			
-			if(awsRegion == null)
-			{
-				throw new InvalidTaskParamException("Invalid AWS region name.");
-			}
+			throw new InvalidTaskParamException("Invalid AWS region name.");
 		}
 
 		if(StringUtils.isNullOrEmpty(p_awsBucketName))
@@ -133,13 +119,15 @@ class S3CreateFolderTask extends AbstractTask
 	}
 
 	@Override
-	public void runImpl()
+	public boolean runImpl()
 	{
-		BasicAWSCredentials awsCreds = new BasicAWSCredentials(p_awsAccessKey, p_awsSecretKey);
-		AmazonS3 s3Client = AmazonS3ClientBuilder.standard()
-		                        .withCredentials(new AWSStaticCredentialsProvider(awsCreds))
-		                        .withRegion(p_awsRegionName)
-		                        .build();
+		AmazonS3 s3Client = createS3Client(p_awsAccessKey, p_awsSecretKey, p_awsRegionName, new ClientConfiguration());
+
+		if(isDryRun())
+		{
+			System.out.println("    Dry run, nothing created.");
+			return true;
+		}
 
 		String folderKeyName = p_folderName + "/";
 
@@ -158,7 +146,10 @@ class S3CreateFolderTask extends AbstractTask
         catch (Exception e)
         {
             System.err.println(e.getMessage());
+            return false;
         }
+
+        return true;
 	}
 
 	@Override
@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package org.bitsoftware.aws.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.bitsoftware.aws.util.Utils;
+
+import com.amazonaws.util.StringUtils;
+
+/**
+ * S3 shard merge task
+ *
+ * Checks that the shards of a folder uploaded by several hosts with
+ * s3upload -shard together cover the whole folder. The folder is scanned
+ * once and each file is assigned to its shard, so each shard's summary is
+ * compared with the files it should have uploaded.
+ */
+class S3ShardMergeTask extends AbstractTask
+{
+	public static final String TaskName = "s3shardmerge";
+
+	private File p_file;
+	private boolean p_recursive;
+	private int p_shards;
+	private File p_summaries;
+
+	/** Constructor */
+	public S3ShardMergeTask(String[] params) throws InvalidTaskParamException
+	{
+		super(params);
+	}
+
+	@Override
+	protected String getParamsUsage()
+	{
+		String retVal =
+	    	"Valid parameters for running " + TaskName + " task:\n" +
+	    	"-f:<folder>                : Path to the folder uploaded in shards.\n" +
+	    	"[-t[:false|true]           : Optional indication that the whole file tree under the folder was uploaded.\n" +
+	    	"                             Must be the same as for the upload of the shards.\n" +
+	    	"                             Default value if not specified is false.\n" +
+	    	"                             Default value if specified without true or false indication is true.\n" +
+	    	"-shards:<count>            : Number of shards the folder was uploaded in.\n" +
+	    	"[-summaries:<folder>]      : Optional folder with the summaries written by the upload of the shards.\n" +
+	    	"                             Default value if not specified is the current folder.\n";
+
+		return retVal;
+	}
+
+	@Override
+	protected void setDefaults()
+	{
+		p_summaries = new File(".");
+	}
+
+	@Override
+	protected void validateParams() throws InvalidTaskParamException
+	{
+		for(String par : params.keySet())
+		{
+			switch(par)
+			{
+			case "-f":
+				String f = params.get(par);
+				if(f != null)
+					p_file = new File(f);
+				break;
+			case "-t":
+				String v = params.get(par);
+				if(v == null)
+					p_recursive = true;
+				else
+					p_recursive = Boolean.valueOf(v);
+				break;
+			case "-shards":
+				try
+				{
+					p_shards = Integer.parseInt(params.get(par));
+				}
+				catch(NumberFormatException e)
+				{
+					p_shards = -1;
+				}
+				break;
+			case "-summaries":
+				String summaries = params.get(par);
+				if(summaries != null)
+					p_summaries = new File(summaries);
+				break;
+			}
+		}
+
+		if(p_file == null)
+		{
+			String err = "Missing folder parameter. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+		else if(!p_file.isDirectory())
+		{
+			throw new InvalidTaskParamException("Folder does not exists.");
+		}
+
+		if(StringUtils.isNullOrEmpty(params.get("-shards")))
+		{
+			String err = "Missing shards count parameter. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+		else if(p_shards < 1)
+		{
+			String err = "Invalid shards count. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+
+		if(!p_summaries.isDirectory())
+		{
+			throw new InvalidTaskParamException("Summaries folder does not exists.");
+		}
+	}
+
+	@Override
+	public boolean runImpl()
+	{
+		ArrayList<File2Upload> files = new FileTree(p_file, p_recursive).getFiles();
+		if(files == null)
+			return false;
+
+		// what each shard should have uploaded
+		ShardSummary[] expected = new ShardSummary[p_shards];
+		for(int i = 0; i < p_shards; i++)
+		{
+			expected[i] = new ShardSummary(new Shard(i + 1, p_shards));
+		}
+
+		long totalSize = 0;
+		for(File2Upload f : files)
+		{
+			expected[Shard.getIndex(f.getRelativeName(), p_shards) - 1].add(f);
+			totalSize += f.Size;
+		}
+
+		boolean success = true;
+
+		for(ShardSummary e : expected)
+		{
+			ShardSummary summary;
+			try
+			{
+				summary = ShardSummary.load(p_summaries, e.Shard.Index, e.Shard.Count);
+			}
+			catch(IOException ex)
+			{
+				System.err.println(ex.getMessage());
+				success = false;
+				continue;
+			}
+
+			if(summary == null)
+			{
+				System.err.println("    Shard " + e.Shard + ": no summary, not uploaded or not completed.");
+				success = false;
+			}
+			else if(summary.FailedCount > 0)
+			{
+				System.err.println("    Shard " + e.Shard + ": failed to upload " + summary.FailedCount + " file(s).");
+				success = false;
+			}
+			else if(!summary.matches(e))
+			{
+				System.err.println("    Shard " + e.Shard + ": uploaded " + summary.FileCount + " file(s), " +
+						Utils.printSizeFromBytes(summary.Size) + ", but the folder has " + e.FileCount + " file(s), " +
+						Utils.printSizeFromBytes(e.Size) + (summary.FileCount == e.FileCount && summary.Size == e.Size ?
+						" with different names or sizes." : "."));
+				success = false;
+			}
+			else
+			{
+				System.out.println("    Shard " + e.Shard + ": uploaded " + e.FileCount + " file(s), " +
+						Utils.printSizeFromBytes(e.Size) + ".");
+			}
+		}
+
+		if(success)
+			System.out.println("    All " + p_shards + " shard(s) together uploaded the " + files.size() + " file(s), " +
+					Utils.printSizeFromBytes(totalSize) + " of the folder.");
+
+		return success;
+	}
+
+	@Override
+	public String getDescription()
+	{
+		return "Checking the " + p_shards + " shard(s) uploaded from folder \"" + p_file.getAbsolutePath() + "\"";
+	}
+}
@@ -5,31 +5,31 @@ package org.bitsoftware.aws.task;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.DirectoryIteratorException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import org.bitsoftware.aws.util.DecorrelatedJitterBackoff;
+import org.bitsoftware.aws.util.ProgressReporter;
 import org.bitsoftware.aws.util.Utils;
 
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.client.builder.ExecutorFactory;
-import com.amazonaws.regions.Region;
-import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.AccessControlList;
 import com.amazonaws.services.s3.model.GroupGrantee;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.Permission;
 import com.amazonaws.services.s3.model.PutObjectRequest;
-import com.amazonaws.services.s3.transfer.TransferManager;
-import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
-import com.amazonaws.services.s3.transfer.Upload;
 import com.amazonaws.util.StringUtils;
 
 /**
@@ -44,15 +44,68 @@ class S3UploadTask extends AbstractTask
 	public static final String TaskName = "s3upload";
 
 	private static final String ACL_Public_Read = "public-read";
+
+	private static final long Default_Watch_Debounce = 2000;
+
+	private static final int Default_Retries = 2;
+	private static final long Default_Hedge_Size_KB = 1024;
+
+	private static final int Default_Threads = 1;
+	private static final int Default_Bandwidth_MB = 10;
+
+	private static final int Default_Progress_Interval = 5;
+
+	/** Value of the file parameter for uploading the standard input */
+	private static final String Standard_Input = "-";
+
+	static final int Default_Part_Size_MB = 16;
+	private static final int Default_Buffers = 4;
+
+	/** Delay before the first SDK request retry, in milliseconds */
+	private static final long Request_Retry_Base_Delay = 100;
+	/** Maximum delay between SDK request retries, in milliseconds */
+	private static final long Request_Retry_Max_Delay = 20000;
 	
 	private String p_awsAccessKey;
 	private String p_awsSecretKey;
 	private String p_awsRegionName;
 	private String p_awsBucketName;
+	private ArrayList<Destination> p_destinations;
 	private String p_awsDirectoryPath;
 	private String p_acl;
 	private File p_file;
+	private boolean p_stdin;
+	private String p_objectName;
+	private int p_partSize;
+	private int p_buffers;
 	private boolean p_recursive;
+	private boolean p_watch;
+	private long p_watchDebounce;
+	private int p_retries;
+	private int p_requestTimeout;
+	private long p_hedgeSize;
+	private UploadScheduler.Order p_order;
+	private int p_threads;
+	private int p_bandwidth;
+	private Shard p_shard;
+	private int p_progressInterval;
+	private boolean p_verbose;
+	private File p_summaries;
+
+	private FileTree fileTree;
+	private ProgressReporter progress;
+	/** Summary of the uploaded files of the shard, null if not sharding */
+	private ShardSummary shardSummary;
+
+	/** Uploader used for a single bucket */
+	private FileUploader fileUploader;
+	/** Uploader used for several buckets, or for the standard input */
+	private StreamUploader streamUploader;
+
+	/** Runs the uploads of the initial scan, then those of the watcher */
+	private ExecutorService executor;
+	/** Watcher of the folder, null if not watching */
+	private DirectoryWatcher watcher;
 	
 	/** Constructor */
 	public S3UploadTask(String[] params) throws InvalidTaskParamException
@@ -68,25 +121,91 @@ class S3UploadTask extends AbstractTask
     		"-a:<awsaccesskey>          : AWS access key.\n" +
     		"-s:<awssecretkey>          : AWS secret key.\n" +
     		"-r:<awsregionname>         : AWS region name. E.g. eu-west-1, eu-central-1\n" +
-    		"-b:<bucket>                : S3 bucket where file(s) will be uploaded.\n" +
+    		"                             Optional if a region is given for every bucket.\n" +
+    		"-b:<bucket>[@<region>][,...] : S3 bucket(s) where file(s) will be uploaded.\n" +
     		"                             Bucker must already exists in S3.\n" +
+    		"                             The region is needed only if it differs from -r.\n" +
+    		"                             With several buckets each file is read once and uploaded\n" +
+    		"                             to all of them at the same time, in parts of -partsize.\n" +
     		"[-d:<directorypath>]       : Optional S3 folder path under specified bucket\n" +
     		"                             where file(s) will be uploaded.\n" +
     		"                             If not specified the file(s) will be uploaded directly under the bucket.\n" +
     		"                             Any missing folder will be created automatically.\n" +
     		"-f:<file or folder>        : Path to the file(s) to upload.\n" +
     		"                             If this is a folder, all files in that folder will be uploaded\n" +
+    		"                             If this is " + Standard_Input + " the standard input is uploaded as object -n.\n" +
+    		"[-n:<objectname>]          : Name of the object the standard input is uploaded to.\n" +
+    		"                             Required if uploading the standard input.\n" +
+    		"[-partsize:<MB>]           : Optional part size used for uploading the standard input\n" +
+    		"                             or uploading to several buckets.\n" +
+    		"                             A file can be at most " + StreamUploader.Max_Parts + " parts long.\n" +
+    		"                             Default value if not specified is " + Default_Part_Size_MB + ".\n" +
+    		"[-buffers:<count>]         : Optional number of parts kept in memory when uploading the standard input\n" +
+    		"                             or uploading to several buckets, one being read while the others are uploaded.\n" +
+    		"                             A slow bucket delays reading by at most this many parts.\n" +
+    		"                             Default value if not specified is " + Default_Buffers + ".\n" +
     		"[-t[:false|true]           : Optional indication to upload the whole file tree under the specified folder.\n" +
     		"                             Used only if uploading a folder.\n" +
     		"                             Ignored if uploading a file.\n" +
     		"                             Default value if not specified is false.\n" +
     		"                             Default value if specified without true or false indication is true.\n" +
     		"[-acl:public-read]         : Optional access control.\n" +
-    		"                             public-read: public read";
+    		"                             public-read: public read\n" +
+    		"[-watch[:<millis>]]        : Optional indication to keep watching the specified folder after the upload\n" +
+    		"                             and upload any file created or modified in it.\n" +
+    		"                             Sub folders are watched too if -t is specified.\n" +
+    		"                             A file is uploaded only after it stopped changing for <millis> milliseconds.\n" +
+    		"                             Default value if specified without milliseconds is " + Default_Watch_Debounce + ".\n" +
+    		"                             Runs until the process is stopped.\n" +
+    		"[-retries:<count>]         : Optional number of times a failed file upload is retried.\n" +
+    		"                             When uploading to several buckets, or from the standard input,\n" +
+    		"                             each failed part is retried for its bucket instead.\n" +
+    		"                             Default value if not specified is " + Default_Retries + ".\n" +
+    		"[-timeout:<millis>]        : Optional timeout in milliseconds for each request sent to AWS.\n" +
+    		"                             If not specified requests do not time out.\n" +
+    		"[-hedge[:<KB>]]            : Optional indication to send a second request for files not bigger than <KB>\n" +
+    		"                             when the first one takes longer than 95% of the previous requests.\n" +
+    		"                             Only applies to files uploaded to a single bucket.\n" +
+    		"                             Default value if specified without size is " + Default_Hedge_Size_KB + ".\n" +
+    		"[-threads:<count>]         : Optional number of files uploaded at the same time.\n" +
+    		"                             Default value if not specified is " + Default_Threads + ".\n" +
+    		"[-order:<order>]           : Optional order in which files are uploaded.\n" +
+    		"                             none: order in which files are found (default)\n" +
+    		"                             largest: largest files first, for the shortest total time\n" +
+    		"                             smallest: smallest files first, for the most files uploaded early\n" +
+    		"                             mixed: each large file followed by a burst of small files\n" +
+    		"[-bandwidth:<MB/s>]        : Optional upload bandwidth used for estimating the completion time.\n" +
+    		"                             Default value if not specified is " + Default_Bandwidth_MB + ".\n" +
+    		"[-progress:<seconds>]      : Optional interval at which the upload progress is printed, 0 for never.\n" +
+    		"                             Default value if not specified is " + Default_Progress_Interval + ".\n" +
+    		"[-verbose]                 : Optional indication to print a line for each file uploaded.\n" +
+    		"[-shard:<index>/<count>]   : Optional indication to upload only one of <count> parts of the folder,\n" +
+    		"                             so that several hosts sharing the folder can upload it together.\n" +
+    		"                             Files are assigned to parts by their path relative to the folder.\n" +
+    		"                             <index> is between 1 and <count>.\n" +
+    		"                             A summary of the part is written when its upload completes,\n" +
+    		"                             for checking with the " + S3ShardMergeTask.TaskName + " task that all parts are uploaded.\n" +
+    		"[-summaries:<folder>]      : Optional folder where the summary of the part is written.\n" +
+    		"                             Default value if not specified is the current folder.\n" +
+    		"[-dryrun]                  : Optional indication to only show what would be uploaded.\n" +
+    		Trace_Params_Usage;
     	
     	return retVal;
 	}
 
+	@Override
+	protected void setDefaults()
+	{
+		p_partSize = Default_Part_Size_MB;
+		p_buffers = Default_Buffers;
+		p_watchDebounce = Default_Watch_Debounce;
+		p_retries = Default_Retries;
+		p_order = UploadScheduler.Order.NONE;
+		p_threads = Default_Threads;
+		p_bandwidth = Default_Bandwidth_MB;
+		p_progressInterval = Default_Progress_Interval;
+	}
+
 	@Override
 	protected void validateParams() throws InvalidTaskParamException
 	{
@@ -110,7 +229,20 @@ class S3UploadTask extends AbstractTask
 				p_awsDirectoryPath = params.get(par);
 				break;
 			case "-f":
-				p_file = new File(params.get(par));
+				String f = params.get(par);
+				if(Standard_Input.equals(f))
+					p_stdin = true;
+				else if(f != null)
+					p_file = new File(f);
+				break;
+			case "-n":
+				p_objectName = params.get(par);
+				break;
+			case "-partsize":
+				p_partSize = parseInt(params.get(par));
+				break;
+			case "-buffers":
+				p_buffers = parseInt(params.get(par));
 				break;
 			case "-t":
 				String v = params.get(par);
@@ -122,6 +254,63 @@ class S3UploadTask extends AbstractTask
 			case "-acl":
 				p_acl = params.get(par);
 				break;
+			case "-watch":
+				p_watch = true;
+				String w = params.get(par);
+				if(w != null)
+				{
+					try
+					{
+						p_watchDebounce = Long.parseLong(w);
+					}
+					catch(NumberFormatException e)
+					{
+						p_watchDebounce = -1;
+					}
+				}
+				break;
+			case "-retries":
+				p_retries = parseInt(params.get(par));
+				break;
+			case "-timeout":
+				p_requestTimeout = parseInt(params.get(par));
+				break;
+			case "-hedge":
+				String h = params.get(par);
+				if(h == null)
+					p_hedgeSize = Default_Hedge_Size_KB * 1024;
+				else
+					p_hedgeSize = parseInt(h) * 1024L;
+				break;
+			case "-threads":
+				p_threads = parseInt(params.get(par));
+				break;
+			case "-order":
+				p_order = UploadScheduler.Order.fromName(params.get(par));
+				break;
+			case "-bandwidth":
+				p_bandwidth = parseInt(params.get(par));
+				break;
+			case "-progress":
+				p_progressInterval = parseInt(params.get(par));
+				break;
+			case "-verbose":
+				p_verbose = true;
+				break;
+			case "-shard":
+				p_shard = Shard.fromParam(params.get(par));
+				if(p_shard == null)
+				{
+					String err = "Invalid shard. See usage.";
+					String helpMsg = getParamsUsage();
+					throw new InvalidTaskParamException(err, helpMsg);
+				}
+				break;
+			case "-summaries":
+				String summaries = params.get(par);
+				if(summaries != null)
+					p_summaries = new File(summaries);
+				break;
 			}
 		}
 		
@@ -139,148 +328,612 @@ class S3UploadTask extends AbstractTask
 			throw new InvalidTaskParamException(err, helpMsg);
 		}
 
-		if(StringUtils.isNullOrEmpty(p_awsRegionName))
+		if(StringUtils.isNullOrEmpty(p_awsBucketName))
 		{
-			String err = "Missing AWS region name parameter. See usage.";
+			String err = "Missing bucket name parameter. See usage.";
 			String helpMsg = getParamsUsage();
 			throw new InvalidTaskParamException(err, helpMsg);
 		}
-		else
+
+		p_destinations = new ArrayList<>();
+		for(String b : p_awsBucketName.split(","))
 		{
-			Region awsRegion = null;
-			
-			try
+			String bucketName = b.trim();
+			String regionName = p_awsRegionName;
+
+			int idx = bucketName.indexOf("@");
+			if(idx >= 0)
+			{
+				regionName = bucketName.substring(idx + 1).trim();
+				bucketName = bucketName.substring(0, idx).trim();
+			}
+
+			if(StringUtils.isNullOrEmpty(bucketName))
 			{
-				awsRegion = RegionUtils.getRegion(p_awsRegionName);
+				String err = "Missing bucket name parameter. See usage.";
+				String helpMsg = getParamsUsage();
+				throw new InvalidTaskParamException(err, helpMsg);
 			}
-			catch(Exception e)
+
+			if(StringUtils.isNullOrEmpty(regionName))
 			{
-				
+				String err = "Missing AWS region name parameter. See usage.";
+				String helpMsg = getParamsUsage();
+				throw new InvalidTaskParamException(err, helpMsg);
 			}
-			
-			if(awsRegion == null)
+			else if(!Utils.isValidRegionName(regionName))
 			{
 				throw new InvalidTaskParamException("Invalid AWS region name.");
 			}
+
+			p_destinations.add(new Destination(bucketName, regionName));
 		}
 
-		if(StringUtils.isNullOrEmpty(p_awsBucketName))
+		p_awsDirectoryPath = Utils.normalizePath(p_awsDirectoryPath);
+
+		if(p_stdin)
 		{
-			String err = "Missing bucket name parameter. See usage.";
+			validateStreamParams();
+		}
+		else if(p_file == null)
+		{
+			String err = "Missing file parameter. See usage.";
 			String helpMsg = getParamsUsage();
 			throw new InvalidTaskParamException(err, helpMsg);
 		}
+		else if(!p_file.exists())
+		{
+			throw new InvalidTaskParamException("File does not exists.");
+		}
 
-		p_awsDirectoryPath = normalizePath(p_awsDirectoryPath);
+		if(p_partSize < StreamUploader.Min_Part_Size / (1024 * 1024) || p_partSize > Integer.MAX_VALUE / (1024 * 1024))
+		{
+			String err = "Invalid part size. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
 
-		if(p_file == null)
+		if(p_buffers < 1)
 		{
-			String err = "Missing file parameter. See usage.";
+			String err = "Invalid buffers count. See usage.";
 			String helpMsg = getParamsUsage();
 			throw new InvalidTaskParamException(err, helpMsg);
 		}
-		else if(!p_file.exists())
+
+		if(p_retries < 0)
 		{
-			throw new InvalidTaskParamException("File does not exists.");
+			String err = "Invalid retries count. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+
+		if(p_requestTimeout < 0)
+		{
+			String err = "Invalid request timeout. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+
+		if(p_hedgeSize < 0)
+		{
+			String err = "Invalid hedge size. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+
+		if(p_threads < 1)
+		{
+			String err = "Invalid threads count. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+
+		if(p_order == null)
+		{
+			String err = "Invalid upload order. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+
+		if(p_bandwidth < 1)
+		{
+			String err = "Invalid bandwidth. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+
+		if(p_progressInterval < 0)
+		{
+			String err = "Invalid progress interval. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+
+		if(p_shard != null)
+		{
+			if(p_stdin || !p_file.isDirectory())
+			{
+				throw new InvalidTaskParamException("Only a folder can be sharded.");
+			}
+
+			if(p_summaries == null)
+				p_summaries = new File(".");
+
+			if(!p_summaries.isDirectory())
+			{
+				throw new InvalidTaskParamException("Summaries folder does not exists.");
+			}
+		}
+
+		if(p_watch)
+		{
+			if(!p_file.isDirectory())
+			{
+				throw new InvalidTaskParamException("Only a folder can be watched.");
+			}
+
+			if(p_watchDebounce < 0)
+			{
+				String err = "Invalid watch debounce milliseconds. See usage.";
+				String helpMsg = getParamsUsage();
+				throw new InvalidTaskParamException(err, helpMsg);
+			}
 		}
 	}
 
-	@Override
-	public void runImpl()
+	private void validateStreamParams() throws InvalidTaskParamException
 	{
-		BasicAWSCredentials awsCreds = new BasicAWSCredentials(p_awsAccessKey, p_awsSecretKey);
-		AmazonS3 s3Client = AmazonS3ClientBuilder.standard()
-		                        .withCredentials(new AWSStaticCredentialsProvider(awsCreds))
-		                        .withRegion(p_awsRegionName)
-		                        .build();
+		p_objectName = Utils.normalizePath(p_objectName);
+
+		if(StringUtils.isNullOrEmpty(p_objectName))
+		{
+			String err = "Missing object name parameter for uploading the standard input. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
 
-		ArrayList<File2Upload> files2Upload = getFiles2Upload(p_file, 0);
+		if(p_watch)
+		{
+			throw new InvalidTaskParamException("The standard input cannot be watched.");
+		}
+	}
 
-		if(files2Upload != null)
+	@Override
+	public boolean runImpl()
+	{
+		// building the clients loads most of the SDK, so it is done while the files are scanned
+		CompletableFuture<Void> s3Clients = CompletableFuture.runAsync(() ->
 		{
-			for(File2Upload f : files2Upload)
+			for(Destination d : p_destinations)
 			{
-		    	long start = System.currentTimeMillis();
+				d.S3Client = createS3Client(d.RegionName);
+			}
+		});
 
-		    	if(f.Level > 0)
-				{
-		    		String RelativePath = (StringUtils.hasValue(f.RelativePath) ? f.RelativePath + "/" : ""); 
-		    		System.out.println("    Uploading file \"" + RelativePath + f.File.getName() + "\" ...");
-				}
-	
-				uploadFile(s3Client, f.File, f.RelativePath);
-	
-		    	if(f.Level > 0)
-		    	{
-			    	long duration = System.currentTimeMillis() - start;
-			    	String totalDuration = Utils.printDurationFromMillis(duration);
-					System.out.println("    Completed in " + totalDuration + ".");
-		    	}
+		if(p_stdin)
+		{
+			s3Clients.join();
+
+			if(isDryRun())
+			{
+				System.out.println("    Dry run, nothing uploaded.");
+				return true;
+			}
+
+			return uploadStream();
+		}
+
+		if(p_watch)
+		{
+			// registered before the scan, so files changed during the initial upload are not missed
+			watcher = new DirectoryWatcher(p_file, p_recursive, p_watchDebounce);
+			try
+			{
+				watcher.start();
+			}
+			catch(IOException e)
+			{
+				System.err.println("Cannot watch folder \"" + p_file.getAbsolutePath() + "\": " + e.getMessage());
+				closeWatcher();
+				return false;
 			}
 		}
-	       
+
+		try
+		{
+			return uploadFiles(s3Clients);
+		}
+		finally
+		{
+			closeWatcher();
+		}
 	}
-	
-	private ArrayList<File2Upload> getFiles2Upload(File file, int level)
+
+	private boolean uploadFiles(CompletableFuture<Void> s3Clients)
+	{
+		long scanStart = System.nanoTime();
+		fileTree = new FileTree(p_file, p_recursive);
+		ArrayList<File2Upload> files2Upload = fileTree.getFiles();
+
+		if(getTracer() != null)
+			getTracer().traceLocal("scan", scanStart);
+
+		if(files2Upload == null)
+			return false;
+
+		if(p_shard != null)
+			files2Upload = getShardFiles(files2Upload);
+
+		List<File2Upload> plan = planUpload(files2Upload);
+
+		s3Clients.join();
+
+		if(isDryRun())
+		{
+			System.out.println("    Dry run, nothing uploaded.");
+			return true;
+		}
+
+		if(p_destinations.size() == 1)
+			fileUploader = new FileUploader(p_destinations.get(0).S3Client, p_retries, p_hedgeSize);
+		else
+			streamUploader = new StreamUploader(p_partSize * 1024 * 1024, p_buffers, p_destinations.size(), p_retries);
+
+		long totalSize = 0;
+		for(File2Upload f : plan)
+		{
+			totalSize += f.Size;
+		}
+
+		progress = new ProgressReporter(p_progressInterval * 1000L, System.out);
+		progress.addTotal(plan.size(), totalSize);
+		progress.start();
+
+		executor = Executors.newFixedThreadPool(p_threads);
+
+		try
+		{
+			boolean success = upload(plan);
+
+			if(shardSummary != null)
+				success &= saveShardSummary();
+
+			if(p_watch)
+				watch();
+
+			return success;
+		}
+		finally
+		{
+			executor.shutdownNow();
+			progress.stop();
+
+			if(fileUploader != null)
+				fileUploader.shutdown();
+			if(streamUploader != null)
+				streamUploader.shutdown();
+		}
+	}
+
+	private ArrayList<File2Upload> getShardFiles(List<File2Upload> files2Upload)
+	{
+		ArrayList<File2Upload> shardFiles = new ArrayList<>();
+		for(File2Upload f : files2Upload)
+		{
+			if(p_shard.contains(f.getRelativeName()))
+				shardFiles.add(f);
+		}
+
+		System.out.println("    Shard " + p_shard + ": " + shardFiles.size() + " of " + files2Upload.size() + " file(s).");
+
+		shardSummary = new ShardSummary(p_shard);
+
+		return shardFiles;
+	}
+
+	private boolean saveShardSummary()
+	{
+		try
+		{
+			shardSummary.save(p_summaries);
+			System.out.println("    Shard summary written to \"" +
+					ShardSummary.getFile(p_summaries, p_shard.Index, p_shard.Count).getAbsolutePath() + "\".");
+			return true;
+		}
+		catch(IOException e)
+		{
+			System.err.println("Cannot write shard summary: " + e.getMessage());
+			return false;
+		}
+	}
+
+	private AmazonS3 createS3Client(String regionName)
+	{
+		ClientConfiguration clientConfig = new ClientConfiguration()
+				.withRetryPolicy(new RetryPolicy(PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION,
+						new DecorrelatedJitterBackoff(Request_Retry_Base_Delay, Request_Retry_Max_Delay),
+						PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY, true));
+
+		if(p_requestTimeout > 0)
+			clientConfig.setRequestTimeout(p_requestTimeout);
+
+		return createS3Client(p_awsAccessKey, p_awsSecretKey, regionName, clientConfig);
+	}
+
+	private boolean uploadStream()
 	{
-		ArrayList<File2Upload> files2upload = new ArrayList<>();
+		streamUploader = new StreamUploader(p_partSize * 1024 * 1024, p_buffers, p_destinations.size(), p_retries);
+
+		try
+		{
+			Map<Destination, Exception> failures = streamUploader.upload(Channels.newChannel(System.in), p_destinations,
+					getKeyName(null, p_objectName), getAccessControlList());
+
+			return printFailures(p_objectName, failures);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			System.err.println("Upload interrupted.");
+		}
+		catch(Exception e)
+		{
+			System.err.println(e.getMessage());
+		}
+		finally
+		{
+			streamUploader.shutdown();
+		}
+
+		return false;
+	}
 
-		if(file.isFile())
+	/**
+	 * Print the buckets an upload failed for
+	 *
+	 * @return true if there were no failures
+	 */
+	private boolean printFailures(String name, Map<Destination, Exception> failures)
+	{
+		for(Map.Entry<Destination, Exception> failure : failures.entrySet())
 		{
-			String rootDirPath = p_file.getAbsolutePath();
-			if(p_file.isFile())
-				rootDirPath = p_file.getParentFile().getAbsolutePath();
+			System.err.println("Upload of \"" + name + "\" to " + failure.getKey() + " failed: " + failure.getValue().getMessage());
+		}
 
-			String filePath = file.getParentFile().getAbsolutePath();
-			String relativePath = filePath.replace(rootDirPath, "");
+		return failures.isEmpty();
+	}
+
+	private List<File2Upload> planUpload(List<File2Upload> files2Upload)
+	{
+		UploadScheduler scheduler = new UploadScheduler(p_order, p_threads, p_bandwidth * 1024L * 1024L);
+		List<File2Upload> plan = scheduler.plan(files2Upload);
+
+		if(p_file.isDirectory())
+		{
+			long totalSize = 0;
+			for(File2Upload f : plan)
+			{
+				totalSize += f.Size;
+			}
 
-			relativePath = normalizePath(relativePath);
-			
-			File2Upload file2Upload = new File2Upload(file, relativePath, level);
-			files2upload.add(file2Upload);
+			String estimate = Utils.printDurationFromMillis(scheduler.estimateMillis(plan));
+			System.out.println("    Planned " + plan.size() + " file(s), " + Utils.printSizeFromBytes(totalSize) +
+					", estimated completion in " + estimate + " at " + p_bandwidth + " MB/s.");
 		}
-		else if(level == 0 || p_recursive)
+
+		return plan;
+	}
+
+	private boolean upload(List<File2Upload> plan)
+	{
+		List<String> failedFiles = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch uploads = new CountDownLatch(plan.size());
+
+		for(File2Upload f : plan)
 		{
-			try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.toPath()))
+			executor.execute(() ->
 			{
-				for (Path entry : stream)
+				boolean completed = false;
+				try
 				{
-					File fileEntry = entry.toFile();
-					ArrayList<File2Upload> dirFiles2Upload = getFiles2Upload(fileEntry, level+1);
-					files2upload.addAll(dirFiles2Upload);
+					uploadPlanned(f, failedFiles);
+					completed = true;
 				}
-			}
-			catch (DirectoryIteratorException e)
+				finally
+				{
+					// a file whose upload threw is reported with the failed ones
+					if(!completed)
+						failedFiles.add(f.getRelativeName());
+
+					uploads.countDown();
+				}
+			});
+		}
+
+		try
+		{
+			uploads.await();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		progress.flush();
+
+		if(!failedFiles.isEmpty())
+		{
+			System.err.println("Failed to upload " + failedFiles.size() + " file(s):");
+			for(String f : failedFiles)
 			{
-				System.err.println(e.getCause().getMessage());
-				return null;
+				System.err.println("    " + f);
 			}
-			catch(IOException e)
+		}
+
+		return failedFiles.isEmpty();
+	}
+
+	/** Upload a file of the plan, adding it to the failed files if its upload fails */
+	private void uploadPlanned(File2Upload f, List<String> failedFiles)
+	{
+		long start = System.currentTimeMillis();
+		long size = f.File.length();
+		long lastModified = f.File.lastModified();
+
+		if(f.Level > 0 && p_verbose)
+		{
+			progress.println("    Uploading file \"" + f.getRelativeName() + "\" ...");
+		}
+
+		boolean uploaded = uploadFile(f.File, f.RelativePath);
+		if(!uploaded)
+			failedFiles.add(f.getRelativeName());
+		else if(watcher != null)
+			watcher.uploaded(f.File, size, lastModified);
+
+		if(shardSummary != null)
+		{
+			if(uploaded)
+				shardSummary.add(f);
+			else
+				shardSummary.addFailed();
+		}
+
+		if(f.Level > 0 && p_verbose)
+		{
+			long duration = System.currentTimeMillis() - start;
+			String totalDuration = Utils.printDurationFromMillis(duration);
+			progress.println("    Completed \"" + f.getRelativeName() + "\" in " + totalDuration + ".");
+		}
+	}
+
+	private void watch()
+	{
+		System.out.println("Watching folder \"" + p_file.getAbsolutePath() + "\" for changes ...");
+
+		try
+		{
+			watcher.watch(file ->
 			{
-				System.err.println(e.getMessage());
-				return null;
-			}
+		    	long start = System.currentTimeMillis();
+
+				String relativePath = fileTree.getRelativePath(file);
+	    		String filePath = (StringUtils.hasValue(relativePath) ? relativePath + "/" : "");
+
+	    		// files of the other shards are uploaded by their own hosts
+	    		if(p_shard != null && !p_shard.contains(filePath + file.getName()))
+	    			return true;
+
+	    		progress.addTotal(1, file.length());
+
+	    		if(p_verbose)
+	    			progress.println("    Uploading file \"" + filePath + file.getName() + "\" ...");
+
+				boolean uploaded = uploadFile(file, relativePath);
+				if(!uploaded)
+					System.err.println("    Failed to upload file \"" + filePath + file.getName() + "\".");
+
+				if(p_verbose)
+				{
+			    	long duration = System.currentTimeMillis() - start;
+			    	String totalDuration = Utils.printDurationFromMillis(duration);
+					progress.println("    Completed \"" + filePath + file.getName() + "\" in " + totalDuration + ".");
+				}
+
+				return uploaded;
+			}, executor);
+		}
+		catch(IOException e)
+		{
+			System.err.println(e.getMessage());
+		}
+	}
+
+	private void closeWatcher()
+	{
+		if(watcher == null)
+			return;
+
+		try
+		{
+			watcher.close();
+		}
+		catch(IOException e)
+		{
+			System.err.println(e.getMessage());
 		}
-		
-		return files2upload;
 	}
 	
-	private void uploadFile(AmazonS3 s3Client, File file, String relativePath)
+	private boolean uploadFile(File file, String relativePath)
 	{
-		String fileKeyName = "";
-		
-		if(!StringUtils.isNullOrEmpty(p_awsDirectoryPath))
-			fileKeyName += (p_awsDirectoryPath + "/");
-		
-		if(!StringUtils.isNullOrEmpty(relativePath))
-			fileKeyName += (relativePath + "/");
-		
-		fileKeyName += file.getName();
+		long start = System.nanoTime();
+		String fileKeyName = getKeyName(relativePath, file.getName());
+
+		String relativeName = (StringUtils.hasValue(relativePath) ? relativePath + "/" : "") + file.getName();
+		ProgressReporter.Transfer transfer = progress.startTransfer(relativeName, file.length());
+
+		boolean success;
+		if(streamUploader != null)
+			success = uploadFileToAll(file, fileKeyName);
+		else
+			success = uploadFile(file, fileKeyName, p_destinations.get(0).BucketName, transfer);
 
-		PutObjectRequest por = new PutObjectRequest(p_awsBucketName, fileKeyName, file);
+		transfer.done(success);
+
+		if(getTracer() != null)
+			getTracer().traceFile(fileKeyName, file.length(), start, success);
+
+		return success;
+	}
+
+	private boolean uploadFile(File file, String fileKeyName, String bucketName, ProgressReporter.Transfer transfer)
+	{
+		PutObjectRequest por = new PutObjectRequest(bucketName, fileKeyName, file);
 		ObjectMetadata om = new ObjectMetadata();
 		por.setMetadata(om);
+		por.setGeneralProgressListener(transfer);
+
+		AccessControlList acl = getAccessControlList();
+
+		if(acl != null)
+		{
+			por.setAccessControlList(acl);
+		}
+
+		return fileUploader.upload(por);
+	}
+
+	/** Read the file once and upload it to all buckets */
+	private boolean uploadFileToAll(File file, String fileKeyName)
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			Map<Destination, Exception> failures = streamUploader.upload(channel, p_destinations, fileKeyName, getAccessControlList());
+
+			return printFailures(fileKeyName, failures);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			System.err.println("Upload of \"" + fileKeyName + "\" interrupted.");
+		}
+		catch(Exception e)
+		{
+			System.err.println(e.getMessage());
+		}
 
+		return false;
+	}
+
+	private String getKeyName(String relativePath, String name)
+	{
+		return getKeyName(p_awsDirectoryPath, relativePath, name);
+	}
+
+	/** Get the access control list requested by the acl parameter, null if none */
+	private AccessControlList getAccessControlList()
+	{
 		AccessControlList acl = new AccessControlList();
 
 		if(!StringUtils.isNullOrEmpty(p_acl))
@@ -291,85 +944,32 @@ class S3UploadTask extends AbstractTask
         	}
         }
 
-		if(!acl.getGrantsAsList().isEmpty())
-		{
-			por.setAccessControlList(acl);
-		}
+		if(acl.getGrantsAsList().isEmpty())
+			return null;
 
-		TransferManager tm = TransferManagerBuilder.standard()
-				.withS3Client(s3Client)
-				.withExecutorFactory(new ExecutorFactory()
-				{
-					@Override
-					public ExecutorService newExecutor()
-					{
-						return Executors.newFixedThreadPool(20);
-					}
-				})
-				.build()
-				;
-
-        try 
-        {
-    		Upload upload = tm.upload(por);
-            
-    		upload.waitForCompletion();
-        }
-        catch (Exception e)
-        {
-            System.err.println(e.getMessage());
-        }
-        finally
-        {
-        	tm.shutdownNow(false);
-        }
+		return acl;
 	}
 	
 	@Override
 	public String getDescription()
 	{
-		String awsDestination = p_awsBucketName +
+		String awsDestination = "";
+		for(Destination d : p_destinations)
+		{
+			if(!awsDestination.isEmpty())
+				awsDestination += ", ";
+
+			awsDestination += (p_destinations.size() > 1 ? d.toString() : d.BucketName) +
 				(StringUtils.hasValue(p_awsDirectoryPath) ? "/" + p_awsDirectoryPath : "");
+		}
 		
+		if(p_stdin)
+			return "Uploading standard input to \"" + awsDestination + "/" + p_objectName + "\"";
+
 		if(p_file.isDirectory())
 			return "Uploading files from folder \"" + p_file.getAbsolutePath() + "\" to \"" + awsDestination + "\"";
 		
 		return "Uploading file \"" + p_file.getName() + "\" to \"" + awsDestination + "\"";
 	}
 	
-
-	private String normalizePath(String path)
-	{
-		if(path != null)
-			path = path.trim();
-		
-		if(StringUtils.isNullOrEmpty(path))
-			return path;
-		
-		path = path.replace("\\", "/");
-		
-		//remove any / from the beginning
-		path = path.replaceAll("^/+", "");
-
-		//remove any number of / from the end
-		path = path.replaceAll("/+$", "");
-		
-		return path;
-	}
-	
-	private static class File2Upload
-	{
-		File File;
-		String RelativePath;
-		int Level;
-
-		File2Upload(File f, String relativePath, int level)
-		{
-			this.File = f;
-			this.RelativePath = relativePath;
-			this.Level = level;
-		}
-		
-	}
-
 }
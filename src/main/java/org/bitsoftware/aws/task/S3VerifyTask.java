@@ -0,0 +1,426 @@
+/**
+ *
+ */
+package org.bitsoftware.aws.task;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bitsoftware.aws.util.ETagHasher;
+import org.bitsoftware.aws.util.Utils;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
+import com.amazonaws.util.StringUtils;
+
+/**
+ * S3 verify task
+ *
+ * Checks that the objects in a bucket match the local files they were
+ * uploaded from. The objects are listed a thousand at a time, and the
+ * expected ETag of each file whose size matches is computed locally, in the
+ * single request or multipart form of the ETag of its object. The part size
+ * of a multipart object is the one giving as many parts as its ETag tells.
+ */
+class S3VerifyTask extends AbstractTask
+{
+	public static final String TaskName = "s3verify";
+
+	/** Maximum number of keys returned by S3 per listing request */
+	private static final int List_Max_Keys = 1000;
+
+	private static final long MB = 1024 * 1024;
+
+	private String p_awsAccessKey;
+	private String p_awsSecretKey;
+	private String p_awsRegionName;
+	private String p_awsBucketName;
+	private String p_awsDirectoryPath;
+	private File p_file;
+	private boolean p_recursive;
+	private int p_partSize;
+	private int p_threads;
+
+	private final LongAdder missing = new LongAdder();
+	private final LongAdder extra = new LongAdder();
+	private final LongAdder mismatched = new LongAdder();
+	private final LongAdder unreadable = new LongAdder();
+
+	/** Constructor */
+	public S3VerifyTask(String[] params) throws InvalidTaskParamException
+	{
+		super(params);
+	}
+
+	@Override
+	protected String getParamsUsage()
+	{
+		String retVal =
+	    	"Valid parameters for running " + TaskName + " task:\n" +
+	    	"-a:<awsaccesskey>          : AWS access key.\n" +
+	    	"-s:<awssecretkey>          : AWS secret key.\n" +
+	    	"-r:<awsregionname>         : AWS region name. E.g. eu-west-1, eu-central-1\n" +
+	    	"-b:<bucket>                : S3 bucket where file(s) were uploaded.\n" +
+	    	"[-d:<directorypath>]       : Optional S3 folder path under specified bucket\n" +
+	    	"                             where file(s) were uploaded.\n" +
+	    	"-f:<file or folder>        : Path to the uploaded file(s).\n" +
+	    	"                             If this is a folder, objects in the S3 folder without a file are reported too.\n" +
+	    	"[-t[:false|true]           : Optional indication that the whole file tree under the specified folder was uploaded.\n" +
+	    	"                             Default value if not specified is false.\n" +
+	    	"                             Default value if specified without true or false indication is true.\n" +
+	    	"[-partsize:<MB>]           : Optional part size the objects uploaded in parts were uploaded with,\n" +
+	    	"                             needed for computing their ETags.\n" +
+	    	"                             If not specified, or not giving the number of parts of an object, the part\n" +
+	    	"                             sizes " + S3UploadTask.TaskName + " uses are tried: at least " + Utils.printSizeFromBytes(getMinimumPartSize()) + " growing with the file size\n" +
+	    	"                             for a single bucket, else " + S3UploadTask.Default_Part_Size_MB + " MB; then any whole number of MB giving that\n" +
+	    	"                             number of parts, if there is only one. Objects no part size fits are reported as mismatched.\n" +
+	    	"                             Objects encrypted with KMS keys do not have MD5 ETags and are reported as mismatched.\n" +
+	    	"[-threads:<count>]         : Optional number of threads hashing the files.\n" +
+	    	"                             Default value if not specified is the number of processors.\n" +
+	    	Trace_Params_Usage;
+
+		return retVal;
+	}
+
+	@Override
+	protected void setDefaults()
+	{
+		p_threads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	protected void validateParams() throws InvalidTaskParamException
+	{
+		for(String par : params.keySet())
+		{
+			switch(par)
+			{
+			case "-a":
+				p_awsAccessKey = params.get(par);
+				break;
+			case "-s":
+				p_awsSecretKey = params.get(par);
+				break;
+			case "-r":
+				p_awsRegionName = params.get(par);
+				break;
+			case "-b":
+				p_awsBucketName = params.get(par);
+				break;
+			case "-d":
+				p_awsDirectoryPath = params.get(par);
+				break;
+			case "-f":
+				String f = params.get(par);
+				if(f != null)
+					p_file = new File(f);
+				break;
+			case "-t":
+				String v = params.get(par);
+				if(v == null)
+					p_recursive = true;
+				else
+					p_recursive = Boolean.valueOf(v);
+				break;
+			case "-partsize":
+				p_partSize = parseInt(params.get(par));
+				break;
+			case "-threads":
+				p_threads = parseInt(params.get(par));
+				break;
+			}
+		}
+
+		if(StringUtils.isNullOrEmpty(p_awsAccessKey))
+		{
+			String err = "Missing AWS access key parameter. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+
+		if(StringUtils.isNullOrEmpty(p_awsSecretKey))
+		{
+			String err = "Missing AWS secret key parameter. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+
+		if(StringUtils.isNullOrEmpty(p_awsRegionName))
+		{
+			String err = "Missing AWS region name parameter. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+		else if(!Utils.isValidRegionName(p_awsRegionName))
+		{
+			throw new InvalidTaskParamException("Invalid AWS region name.");
+		}
+
+		if(StringUtils.isNullOrEmpty(p_awsBucketName))
+		{
+			String err = "Missing bucket name parameter. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+
+		p_awsDirectoryPath = Utils.normalizePath(p_awsDirectoryPath);
+
+		if(p_file == null)
+		{
+			String err = "Missing file parameter. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+		else if(!p_file.exists())
+		{
+			throw new InvalidTaskParamException("File does not exists.");
+		}
+
+		if(p_partSize < 0 || p_partSize > 0 && p_partSize < StreamUploader.Min_Part_Size / (1024 * 1024))
+		{
+			String err = "Invalid part size. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+
+		if(p_threads < 1)
+		{
+			String err = "Invalid threads count. See usage.";
+			String helpMsg = getParamsUsage();
+			throw new InvalidTaskParamException(err, helpMsg);
+		}
+	}
+
+	@Override
+	public boolean runImpl()
+	{
+		// the objects are listed while the files are scanned
+		CompletableFuture<HashMap<String, S3ObjectSummary>> objects =
+				CompletableFuture.supplyAsync(this::createS3Client).thenApplyAsync(this::listObjects);
+
+		ArrayList<File2Upload> files = new FileTree(p_file, p_recursive).getFiles();
+		if(files == null)
+			return false;
+
+		HashMap<String, S3ObjectSummary> remoteObjects;
+		try
+		{
+			remoteObjects = objects.join();
+		}
+		catch(CompletionException e)
+		{
+			System.err.println(e.getCause().getMessage());
+			return false;
+		}
+
+		System.out.println("    Found " + files.size() + " file(s) and " + remoteObjects.size() + " object(s).");
+
+		long start = System.currentTimeMillis();
+		ETagHasher hasher = new ETagHasher(p_threads);
+
+		try
+		{
+			for(File2Upload f : files)
+			{
+				String key = getKeyName(f.RelativePath, f.File.getName());
+				S3ObjectSummary object = remoteObjects.remove(key);
+
+				verify(hasher, f, key, object);
+			}
+
+			hasher.awaitTermination();
+		}
+		catch(InterruptedException e)
+		{
+			hasher.shutdown();
+			Thread.currentThread().interrupt();
+			System.err.println("Verification interrupted.");
+			return false;
+		}
+
+		// a single file is listed by its key, which can be the prefix of other keys
+		if(p_file.isDirectory())
+		{
+			for(String key : remoteObjects.keySet())
+			{
+				// folders created by s3createfolder
+				if(key.endsWith("/"))
+					continue;
+
+				extra.increment();
+				System.err.println("    Extra \"" + key + "\"");
+			}
+		}
+
+		long duration = Math.max(1, System.currentTimeMillis() - start);
+		long hashed = hasher.getHashedBytes();
+		System.out.println("    Hashed " + Utils.printSizeFromBytes(hashed) + " in " + Utils.printDurationFromMillis(duration) +
+				" (" + Utils.printSizeFromBytes(hashed * 1000 / duration) + "/s).");
+
+		System.out.println("    " + missing.sum() + " missing, " + extra.sum() + " extra, " + mismatched.sum() + " mismatched" +
+				(unreadable.sum() > 0 ? ", " + unreadable.sum() + " unreadable" : "") + ".");
+
+		return missing.sum() + extra.sum() + mismatched.sum() + unreadable.sum() == 0;
+	}
+
+	private void verify(ETagHasher hasher, File2Upload f, String key, S3ObjectSummary object) throws InterruptedException
+	{
+		if(object == null)
+		{
+			missing.increment();
+			System.err.println("    Missing \"" + key + "\"");
+			return;
+		}
+
+		if(object.getSize() != f.Size)
+		{
+			mismatched.increment();
+			System.err.println("    Mismatched \"" + key + "\": size " + object.getSize() + " bytes, expected " + f.Size + " bytes");
+			return;
+		}
+
+		String remoteETag = object.getETag().replace("\"", "").toLowerCase();
+		int parts = ETagHasher.getPartCount(remoteETag);
+		long partSize = parts > 0 ? getPartSize(f.Size, parts) : 0;
+
+		// hashing could not match
+		if(parts > 0 && partSize == 0)
+		{
+			mismatched.increment();
+			System.err.println("    Mismatched \"" + key + "\": uploaded in " + parts + " parts, which no known part size gives." +
+					" Specify -partsize.");
+			return;
+		}
+
+		hasher.getETag(f.File, partSize).whenComplete((etag, e) ->
+		{
+			if(e != null)
+			{
+				Throwable cause = e;
+				while((cause instanceof CompletionException || cause instanceof UncheckedIOException) && cause.getCause() != null)
+					cause = cause.getCause();
+
+				unreadable.increment();
+				System.err.println("    Cannot read \"" + f.getRelativeName() + "\": " + cause.getMessage());
+			}
+			else if(!etag.equals(remoteETag))
+			{
+				mismatched.increment();
+				System.err.println("    Mismatched \"" + key + "\": ETag " + remoteETag + ", expected " + etag +
+						(partSize > 0 ? " for parts of " + Utils.printSizeFromBytes(partSize) : ""));
+			}
+		});
+	}
+
+	/**
+	 * Get the part size a file was uploaded in
+	 *
+	 * @param size file size
+	 * @param parts number of parts of its object
+	 * @return the part size, 0 if no known part size gives that number of parts
+	 */
+	long getPartSize(long size, int parts)
+	{
+		// any part size not smaller than the file gives a single part with the same ETag
+		if(parts == 1)
+			return Math.max(size, 1);
+
+		// the transfer manager's part size: the minimum, or larger to fit the maximum number of parts
+		long tmPartSize = Math.max((size + StreamUploader.Max_Parts - 1) / StreamUploader.Max_Parts, getMinimumPartSize());
+
+		long[] candidates = { p_partSize * MB, tmPartSize, S3UploadTask.Default_Part_Size_MB * MB };
+		for(long partSize : candidates)
+		{
+			if(partSize > 0 && getPartCount(size, partSize) == parts)
+				return partSize;
+		}
+
+		// the part sizes giving that number of parts, keeping it if a single one is a whole number of MB
+		long min = (size + parts - 1) / parts;
+		long max = (size - 1) / (parts - 1);
+
+		long partSize = (min + MB - 1) / MB * MB;
+		if(partSize <= max && partSize + MB > max && getPartCount(size, partSize) == parts)
+			return partSize;
+
+		return 0;
+	}
+
+	private static long getPartCount(long size, long partSize)
+	{
+		return Math.max(1, (size + partSize - 1) / partSize);
+	}
+
+	private static long getMinimumPartSize()
+	{
+		return new TransferManagerConfiguration().getMinimumUploadPartSize();
+	}
+
+	private AmazonS3 createS3Client()
+	{
+		return createS3Client(p_awsAccessKey, p_awsSecretKey, p_awsRegionName, new ClientConfiguration());
+	}
+
+	/** List the objects the files could have been uploaded to, by key */
+	private HashMap<String, S3ObjectSummary> listObjects(AmazonS3 s3Client)
+	{
+		String prefix;
+		if(p_file.isFile())
+			prefix = getKeyName(null, p_file.getName());
+		else
+			prefix = StringUtils.isNullOrEmpty(p_awsDirectoryPath) ? null : p_awsDirectoryPath + "/";
+
+		ListObjectsV2Request request = new ListObjectsV2Request()
+				.withBucketName(p_awsBucketName)
+				.withPrefix(prefix)
+				.withMaxKeys(List_Max_Keys);
+
+		// objects in sub folders belong to files that were not uploaded
+		if(!p_recursive)
+			request.setDelimiter("/");
+
+		HashMap<String, S3ObjectSummary> objects = new HashMap<>();
+
+		ListObjectsV2Result result;
+		do
+		{
+			result = s3Client.listObjectsV2(request);
+
+			for(S3ObjectSummary object : result.getObjectSummaries())
+			{
+				objects.put(object.getKey(), object);
+			}
+
+			request.setContinuationToken(result.getNextContinuationToken());
+		}
+		while(result.isTruncated());
+
+		return objects;
+	}
+
+	private String getKeyName(String relativePath, String name)
+	{
+		return getKeyName(p_awsDirectoryPath, relativePath, name);
+	}
+
+	@Override
+	public String getDescription()
+	{
+		String awsDestination = p_awsBucketName +
+				(StringUtils.hasValue(p_awsDirectoryPath) ? "/" + p_awsDirectoryPath : "");
+
+		if(p_file.isDirectory())
+			return "Verifying files from folder \"" + p_file.getAbsolutePath() + "\" against \"" + awsDestination + "\"";
+
+		return "Verifying file \"" + p_file.getName() + "\" against \"" + awsDestination + "\"";
+	}
+}
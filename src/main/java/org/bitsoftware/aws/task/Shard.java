@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package org.bitsoftware.aws.task;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One of several disjoint parts of a file tree, so that several hosts can
+ * upload the same tree without coordinating.
+ *
+ * A file belongs to a shard by a hash of its path relative to the uploaded
+ * folder, so every host seeing the same tree, wherever it is mounted, assigns
+ * each file to the same shard.
+ */
+class Shard
+{
+	private static final long FNV_Offset_Basis = 0xcbf29ce484222325L;
+	private static final long FNV_Prime = 0x100000001b3L;
+
+	/** Shard number, from 1 to Count */
+	final int Index;
+	final int Count;
+
+	Shard(int index, int count)
+	{
+		this.Index = index;
+		this.Count = count;
+	}
+
+	/**
+	 * Parse a shard given as <index>/<count>
+	 *
+	 * @return the shard, null if the value is not valid
+	 */
+	static Shard fromParam(String value)
+	{
+		if(value == null)
+			return null;
+
+		int idx = value.indexOf("/");
+		if(idx < 0)
+			return null;
+
+		try
+		{
+			int index = Integer.parseInt(value.substring(0, idx).trim());
+			int count = Integer.parseInt(value.substring(idx + 1).trim());
+
+			if(count < 1 || index < 1 || index > count)
+				return null;
+
+			return new Shard(index, count);
+		}
+		catch(NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	/** Check if the file with the given path relative to the uploaded folder belongs to this shard */
+	boolean contains(String relativeName)
+	{
+		return getIndex(relativeName, Count) == Index;
+	}
+
+	/** Get the shard, from 1 to count, the file with the given relative path belongs to */
+	static int getIndex(String relativeName, int count)
+	{
+		return (int)Long.remainderUnsigned(hash(relativeName), count) + 1;
+	}
+
+	/** 64 bit FNV-1a hash of the UTF-8 bytes of a string */
+	static long hash(String s)
+	{
+		long hash = FNV_Offset_Basis;
+
+		for(byte b : s.getBytes(StandardCharsets.UTF_8))
+		{
+			hash ^= (b & 0xff);
+			hash *= FNV_Prime;
+		}
+
+		return hash;
+	}
+
+	@Override
+	public String toString()
+	{
+		return Index + "/" + Count;
+	}
+}
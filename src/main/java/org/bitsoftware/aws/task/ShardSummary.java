@@ -0,0 +1,127 @@
+/**
+ *
+ */
+package org.bitsoftware.aws.task;
+
+import static org.bitsoftware.aws.task.Shard.hash;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Summary of the files of a shard, written when the shard's upload completes.
+ *
+ * The fingerprint is the sum of a hash of the relative path and size of each
+ * file, so it does not depend on the order the files were uploaded in and the
+ * summaries of all shards can be checked against a single scan of the tree.
+ */
+class ShardSummary
+{
+	private static final String Key_Shard = "shard";
+	private static final String Key_Shards = "shards";
+	private static final String Key_Files = "files";
+	private static final String Key_Bytes = "bytes";
+	private static final String Key_Failed = "failed";
+	private static final String Key_Fingerprint = "fingerprint";
+
+	final Shard Shard;
+	long FileCount;
+	long Size;
+	long FailedCount;
+	long Fingerprint;
+
+	ShardSummary(Shard shard)
+	{
+		this.Shard = shard;
+	}
+
+	/** Add a file of the shard */
+	synchronized void add(File2Upload f)
+	{
+		FileCount++;
+		Size += f.Size;
+		Fingerprint += hash(f.getRelativeName() + ":" + f.Size);
+	}
+
+	/** Add a file of the shard that failed to upload */
+	synchronized void addFailed()
+	{
+		FailedCount++;
+	}
+
+	/** Check if the summary covers the same files as another one */
+	boolean matches(ShardSummary other)
+	{
+		return FileCount == other.FileCount && Size == other.Size && Fingerprint == other.Fingerprint;
+	}
+
+	/** Get the summary file of a shard in a folder */
+	static File getFile(File folder, int index, int count)
+	{
+		return new File(folder, "shard-" + index + "-of-" + count + ".properties");
+	}
+
+	/** Write the summary to its file in the given folder */
+	void save(File folder) throws IOException
+	{
+		Properties p = new Properties();
+		p.setProperty(Key_Shard, String.valueOf(Shard.Index));
+		p.setProperty(Key_Shards, String.valueOf(Shard.Count));
+		p.setProperty(Key_Files, String.valueOf(FileCount));
+		p.setProperty(Key_Bytes, String.valueOf(Size));
+		p.setProperty(Key_Failed, String.valueOf(FailedCount));
+		p.setProperty(Key_Fingerprint, Long.toHexString(Fingerprint));
+
+		File file = getFile(folder, Shard.Index, Shard.Count);
+		File temp = new File(folder, file.getName() + ".tmp");
+
+		try (OutputStream out = new FileOutputStream(temp))
+		{
+			p.store(out, "Upload of shard " + Shard);
+		}
+
+		// the summary only appears once complete, for the merge step
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Read the summary of a shard from its file in the given folder
+	 *
+	 * @return the summary, null if the shard has no summary
+	 */
+	static ShardSummary load(File folder, int index, int count) throws IOException
+	{
+		File file = getFile(folder, index, count);
+		if(!file.exists())
+			return null;
+
+		Properties p = new Properties();
+		try (InputStream in = new FileInputStream(file))
+		{
+			p.load(in);
+		}
+
+		try
+		{
+			ShardSummary summary = new ShardSummary(new Shard(Integer.parseInt(p.getProperty(Key_Shard)),
+					Integer.parseInt(p.getProperty(Key_Shards))));
+			summary.FileCount = Long.parseLong(p.getProperty(Key_Files));
+			summary.Size = Long.parseLong(p.getProperty(Key_Bytes));
+			summary.FailedCount = Long.parseLong(p.getProperty(Key_Failed));
+			summary.Fingerprint = Long.parseUnsignedLong(p.getProperty(Key_Fingerprint), 16);
+
+			return summary;
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IOException("Invalid shard summary \"" + file.getAbsolutePath() + "\".");
+		}
+	}
+}
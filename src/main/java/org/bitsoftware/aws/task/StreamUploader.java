@@ -0,0 +1,463 @@
+/**
+ *
+ */
+package org.bitsoftware.aws.task;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bitsoftware.aws.util.BufferPool;
+import org.bitsoftware.aws.util.ByteBufferInputStream;
+import org.bitsoftware.aws.util.DecorrelatedJitterBackoff;
+
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AccessControlList;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * Uploads a stream, possibly of unknown length, to one or more buckets.
+ *
+ * The stream is read once into the buffers of a pool, one part per buffer, and
+ * each full buffer is uploaded as a part of a multipart upload to every bucket
+ * while the next one is being read. A buffer goes back to the pool when all
+ * buckets have uploaded it, so reading waits when all buffers are in flight:
+ * memory use stays at the pool size times the part size however long the
+ * stream is, and a slow bucket holds back reading by at most that many parts.
+ * A stream that fits in a single part is uploaded with a single request.
+ *
+ * The pool is shared by all the streams uploaded at the same time. A failed
+ * part, or single request, is retried for its bucket like a failed file
+ * upload, while the other buckets go on.
+ */
+class StreamUploader
+{
+	/** Minimum size of a part, except the last one, accepted by S3 */
+	static final int Min_Part_Size = 5 * 1024 * 1024;
+
+	/** Maximum number of parts of a multipart upload accepted by S3 */
+	static final int Max_Parts = 10000;
+
+	private final BufferPool pool;
+	private final ExecutorService executor;
+	private final int retries;
+	private final DecorrelatedJitterBackoff backoff = new DecorrelatedJitterBackoff(FileUploader.Retry_Base_Delay, FileUploader.Retry_Max_Delay);
+
+	/**
+	 * Constructor
+	 *
+	 * @param partSize part size in bytes
+	 * @param buffers number of part buffers
+	 * @param destinations number of buckets each stream is uploaded to
+	 * @param retries number of times a failed part is retried
+	 */
+	StreamUploader(int partSize, int buffers, int destinations, int retries)
+	{
+		this.pool = new BufferPool(buffers, partSize);
+		this.retries = retries;
+
+		// each buffer is uploaded at most once to each bucket at the same time
+		this.executor = Executors.newFixedThreadPool(buffers * destinations);
+	}
+
+	/**
+	 * Upload a stream
+	 *
+	 * @param channel stream to upload, read until its end
+	 * @param destinations buckets to upload to
+	 * @param key object key
+	 * @param acl access control list, null for the bucket default
+	 * @return the buckets the upload failed for, with the error; empty if uploaded everywhere
+	 */
+	Map<Destination, Exception> upload(ReadableByteChannel channel, List<Destination> destinations, String key, AccessControlList acl)
+			throws IOException, InterruptedException
+	{
+		ByteBuffer buffer = pool.acquire();
+		boolean eof;
+
+		try
+		{
+			eof = fill(channel, buffer);
+		}
+		catch(IOException e)
+		{
+			pool.release(buffer);
+			throw e;
+		}
+
+		ArrayList<DestinationUpload> uploads = new ArrayList<>(destinations.size());
+		for(Destination d : destinations)
+		{
+			uploads.add(new DestinationUpload(d));
+		}
+
+		if(eof)
+		{
+			ByteBuffer content = buffer;
+			submit(content, uploads, "\"" + key + "\"", u -> putObject(content, u.Destination, key, acl));
+			return getFailures(uploads);
+		}
+
+		for(DestinationUpload u : uploads)
+		{
+			try
+			{
+				InitiateMultipartUploadRequest imur = new InitiateMultipartUploadRequest(u.Destination.BucketName, key, new ObjectMetadata());
+				if(acl != null)
+					imur.setAccessControlList(acl);
+
+				u.UploadId = u.Destination.S3Client.initiateMultipartUpload(imur).getUploadId();
+			}
+			catch(RuntimeException e)
+			{
+				u.Error = e;
+			}
+		}
+
+		try
+		{
+			int partNumber = 1;
+
+			while(buffer != null && hasActive(uploads))
+			{
+				if(partNumber > Max_Parts)
+					throw new IOException("Stream is too large for " + Max_Parts + " parts of " + pool.getBufferSize() + " bytes.");
+
+				ByteBuffer part = buffer;
+				int number = partNumber++;
+				boolean last = eof;
+
+				submit(part, uploads, "part " + number + " of \"" + key + "\"", u -> uploadPart(part, u, key, number, last));
+				buffer = null;
+
+				if(!eof)
+				{
+					buffer = pool.acquire();
+					eof = fill(channel, buffer);
+
+					// the stream ended exactly at the end of the previous part
+					if(eof && buffer.remaining() == 0)
+					{
+						pool.release(buffer);
+						buffer = null;
+					}
+				}
+			}
+
+			if(buffer != null)
+			{
+				pool.release(buffer);
+				buffer = null;
+			}
+
+			for(DestinationUpload u : uploads)
+			{
+				complete(u, key);
+			}
+		}
+		catch(IOException | InterruptedException | RuntimeException e)
+		{
+			if(buffer != null)
+				pool.release(buffer);
+
+			for(DestinationUpload u : uploads)
+			{
+				if(u.Error == null)
+					u.Error = e;
+
+				abort(u, key);
+			}
+
+			throw e;
+		}
+
+		return getFailures(uploads);
+	}
+
+	/** Get the number of part buffers not in use */
+	int getAvailableBuffers()
+	{
+		return pool.getAvailable();
+	}
+
+	/** Stop the upload threads */
+	void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Upload a buffer to every bucket still being uploaded to,
+	 * giving the buffer back to the pool when all are done with it
+	 */
+	private void submit(ByteBuffer buffer, List<DestinationUpload> uploads, String name, PartUpload partUpload)
+	{
+		ArrayList<DestinationUpload> active = new ArrayList<>();
+		for(DestinationUpload u : uploads)
+		{
+			if(u.Error == null)
+				active.add(u);
+		}
+
+		if(active.isEmpty())
+		{
+			pool.release(buffer);
+			return;
+		}
+
+		AtomicInteger pending = new AtomicInteger(active.size());
+
+		for(DestinationUpload u : active)
+		{
+			u.Parts.add(executor.submit(() ->
+			{
+				try
+				{
+					// a failed bucket skips the parts already queued for it
+					if(u.Error != null)
+						return null;
+
+					return uploadWithRetries(partUpload, u, name);
+				}
+				catch(RuntimeException e)
+				{
+					u.Error = e;
+					throw e;
+				}
+				finally
+				{
+					if(pending.decrementAndGet() == 0)
+						pool.release(buffer);
+				}
+			}));
+		}
+	}
+
+	/** Upload a buffer to a bucket, retrying with decorrelated jitter backoff */
+	private PartETag uploadWithRetries(PartUpload partUpload, DestinationUpload u, String name)
+	{
+		long delay = 0;
+
+		for(int attempt = 0; ; attempt++)
+		{
+			RuntimeException error;
+			try
+			{
+				return partUpload.upload(u);
+			}
+			catch(RuntimeException e)
+			{
+				// another part failed for good meanwhile
+				if(attempt >= retries || !FileUploader.isRetryable(e) || u.Error != null)
+					throw e;
+
+				System.err.println(e.getMessage());
+				error = e;
+			}
+
+			delay = backoff.nextDelay(delay);
+			System.err.println("Retrying upload of " + name + " to " + u.Destination + " in " + delay + " milliseconds ...");
+
+			try
+			{
+				Thread.sleep(delay);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw error;
+			}
+		}
+	}
+
+	private PartETag uploadPart(ByteBuffer buffer, DestinationUpload u, String key, int partNumber, boolean lastPart)
+	{
+		ByteBuffer part = buffer.duplicate();
+
+		UploadPartRequest upr = new UploadPartRequest()
+				.withBucketName(u.Destination.BucketName)
+				.withKey(key)
+				.withUploadId(u.UploadId)
+				.withPartNumber(partNumber)
+				.withPartSize(part.remaining())
+				.withInputStream(new ByteBufferInputStream(part))
+				.withLastPart(lastPart);
+
+		// allow the SDK to reset the stream for retrying the whole part
+		upr.getRequestClientOptions().setReadLimit(part.remaining() + 1);
+
+		return u.Destination.S3Client.uploadPart(upr).getPartETag();
+	}
+
+	private PartETag putObject(ByteBuffer buffer, Destination destination, String key, AccessControlList acl)
+	{
+		ByteBuffer content = buffer.duplicate();
+
+		ObjectMetadata om = new ObjectMetadata();
+		om.setContentLength(content.remaining());
+
+		PutObjectRequest por = new PutObjectRequest(destination.BucketName, key, new ByteBufferInputStream(content), om);
+		por.getRequestClientOptions().setReadLimit(content.remaining() + 1);
+
+		if(acl != null)
+			por.setAccessControlList(acl);
+
+		destination.S3Client.putObject(por);
+
+		return null;
+	}
+
+	private void complete(DestinationUpload u, String key) throws InterruptedException
+	{
+		List<PartETag> partETags = new ArrayList<>(u.Parts.size());
+
+		for(Future<PartETag> part : u.Parts)
+		{
+			try
+			{
+				PartETag etag = part.get();
+				if(etag != null)
+					partETags.add(etag);
+			}
+			catch(ExecutionException e)
+			{
+				if(u.Error == null)
+					u.Error = e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+			}
+		}
+
+		if(u.UploadId == null)
+			return;
+
+		if(u.Error != null)
+		{
+			abort(u, key);
+			return;
+		}
+
+		try
+		{
+			u.Destination.S3Client.completeMultipartUpload(
+					new CompleteMultipartUploadRequest(u.Destination.BucketName, key, u.UploadId, partETags));
+		}
+		catch(RuntimeException e)
+		{
+			u.Error = e;
+			abort(u, key);
+		}
+	}
+
+	private void abort(DestinationUpload u, String key)
+	{
+		if(u.UploadId == null)
+			return;
+
+		try
+		{
+			u.Destination.S3Client.abortMultipartUpload(new AbortMultipartUploadRequest(u.Destination.BucketName, key, u.UploadId));
+		}
+		catch(RuntimeException e)
+		{
+			System.err.println(e.getMessage());
+		}
+
+		u.UploadId = null;
+	}
+
+	private Map<Destination, Exception> getFailures(List<DestinationUpload> uploads) throws InterruptedException
+	{
+		LinkedHashMap<Destination, Exception> failures = new LinkedHashMap<>();
+
+		for(DestinationUpload u : uploads)
+		{
+			// single part uploads have no multipart upload to complete
+			if(u.UploadId == null)
+			{
+				for(Future<PartETag> part : u.Parts)
+				{
+					try
+					{
+						part.get();
+					}
+					catch(ExecutionException e)
+					{
+						if(u.Error == null)
+							u.Error = e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+					}
+				}
+			}
+
+			if(u.Error != null)
+				failures.put(u.Destination, u.Error);
+		}
+
+		return failures;
+	}
+
+	private static boolean hasActive(List<DestinationUpload> uploads)
+	{
+		for(DestinationUpload u : uploads)
+		{
+			if(u.Error == null)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Fill a buffer from the channel and flip it for reading
+	 *
+	 * @return true if the end of the stream was reached
+	 */
+	static boolean fill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException
+	{
+		boolean eof = false;
+
+		while(buffer.hasRemaining())
+		{
+			if(channel.read(buffer) < 0)
+			{
+				eof = true;
+				break;
+			}
+		}
+
+		buffer.flip();
+
+		return eof;
+	}
+
+	private interface PartUpload
+	{
+		PartETag upload(DestinationUpload u);
+	}
+
+	/** Upload of the stream to one bucket */
+	private static class DestinationUpload
+	{
+		final Destination Destination;
+		final List<Future<PartETag>> Parts = new ArrayList<>();
+		String UploadId;
+		volatile Exception Error;
+
+		DestinationUpload(Destination destination)
+		{
+			this.Destination = destination;
+		}
+	}
+}
@@ -39,6 +39,16 @@ public class TaskFactory
 			return new S3CreateFolderTask(taskParams);
 		}
 
+		if(S3ShardMergeTask.TaskName.equalsIgnoreCase(taskName))
+		{
+			return new S3ShardMergeTask(taskParams);
+		}
+
+		if(S3VerifyTask.TaskName.equalsIgnoreCase(taskName))
+		{
+			return new S3VerifyTask(taskParams);
+		}
+
 		throw new UnsupportedOperationException("Task " + taskName + " is not implemented");
 	}
 }
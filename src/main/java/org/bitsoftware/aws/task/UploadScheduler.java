@@ -0,0 +1,206 @@
+/**
+ *
+ */
+package org.bitsoftware.aws.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Orders the files to upload and estimates how long uploading them takes.
+ *
+ * Files are taken in plan order by a fixed number of upload threads, so the
+ * order decides when each file starts:
+ * <ul>
+ * <li>largest - largest files first, so no big file is left running alone at the end</li>
+ * <li>smallest - smallest files first, so most files are available as soon as possible</li>
+ * <li>mixed - each multipart file followed by a burst of small files, keeping both
+ * bandwidth and request slots busy</li>
+ * </ul>
+ */
+class UploadScheduler
+{
+	/** Size from which the transfer manager uploads files in parts (its default threshold) */
+	static final long Multipart_Threshold = 16 * 1024 * 1024;
+
+	/** Estimated fixed cost of uploading a file, in milliseconds */
+	private static final long Request_Overhead = 50;
+
+	enum Order
+	{
+		NONE, LARGEST, SMALLEST, MIXED;
+
+		/** Get the order by name, null if there is no order with that name */
+		static Order fromName(String name)
+		{
+			for(Order o : values())
+			{
+				if(o.name().equalsIgnoreCase(name))
+					return o;
+			}
+
+			return null;
+		}
+	}
+
+	private static final Comparator<File2Upload> Largest_First = new Comparator<File2Upload>()
+	{
+		@Override
+		public int compare(File2Upload f1, File2Upload f2)
+		{
+			return Long.compare(f2.Size, f1.Size);
+		}
+	};
+
+	private final Order order;
+	private final int threads;
+	private final long bandwidth;
+
+	/**
+	 * Constructor
+	 *
+	 * @param order order of the files
+	 * @param threads number of files uploaded at the same time
+	 * @param bandwidth estimated upload bandwidth in bytes per second
+	 */
+	UploadScheduler(Order order, int threads, long bandwidth)
+	{
+		this.order = order;
+		this.threads = threads;
+		this.bandwidth = bandwidth;
+	}
+
+	/** Get the files in the order they should be uploaded */
+	List<File2Upload> plan(List<File2Upload> files)
+	{
+		ArrayList<File2Upload> plan = new ArrayList<>(files);
+
+		switch(order)
+		{
+		case LARGEST:
+			Collections.sort(plan, Largest_First);
+			break;
+		case SMALLEST:
+			Collections.sort(plan, Collections.reverseOrder(Largest_First));
+			break;
+		case MIXED:
+			plan = mix(plan);
+			break;
+		default:
+			break;
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Estimate how long uploading the files takes, assuming the files being
+	 * transferred at any time share the bandwidth equally
+	 *
+	 * @param plan files in upload order
+	 * @return estimated duration in milliseconds
+	 */
+	long estimateMillis(List<File2Upload> plan)
+	{
+		double bytesPerMilli = bandwidth / 1000.0;
+
+		// each file goes to the next free thread; the time moves from one start or end of a transfer to the next
+		ArrayList<Upload> running = new ArrayList<>(threads);
+		int next = 0;
+		double now = 0;
+
+		while(next < plan.size() || !running.isEmpty())
+		{
+			while(running.size() < threads && next < plan.size())
+			{
+				running.add(new Upload(now + Request_Overhead, plan.get(next++).Size));
+			}
+
+			int transferring = 0;
+			for(Upload u : running)
+			{
+				if(u.TransferStart <= now)
+					transferring++;
+			}
+
+			double rate = transferring > 0 ? bytesPerMilli / transferring : 0;
+
+			double event = Double.MAX_VALUE;
+			for(Upload u : running)
+			{
+				event = Math.min(event, u.TransferStart > now ? u.TransferStart : now + u.Remaining / rate);
+			}
+
+			Iterator<Upload> it = running.iterator();
+			while(it.hasNext())
+			{
+				Upload u = it.next();
+				if(u.TransferStart > now)
+					continue;
+
+				u.Remaining -= rate * (event - now);
+
+				// within rounding of a byte
+				if(u.Remaining < 1)
+					it.remove();
+			}
+
+			now = event;
+		}
+
+		return (long)Math.ceil(now);
+	}
+
+	/** File being uploaded, in the estimate */
+	private static class Upload
+	{
+		/** Time the request overhead ends and the bytes start flowing, in milliseconds */
+		final double TransferStart;
+		/** Bytes left to transfer */
+		double Remaining;
+
+		Upload(double transferStart, long size)
+		{
+			this.TransferStart = transferStart;
+			this.Remaining = size;
+		}
+	}
+
+	private ArrayList<File2Upload> mix(List<File2Upload> files)
+	{
+		ArrayList<File2Upload> large = new ArrayList<>();
+		ArrayList<File2Upload> small = new ArrayList<>();
+
+		for(File2Upload f : files)
+		{
+			if(f.Size >= Multipart_Threshold)
+				large.add(f);
+			else
+				small.add(f);
+		}
+
+		Collections.sort(large, Largest_First);
+		Collections.sort(small, Largest_First);
+
+		int burst = large.isEmpty() ? small.size() : (small.size() + large.size() - 1) / large.size();
+
+		ArrayList<File2Upload> plan = new ArrayList<>(files.size());
+		int s = 0;
+		for(File2Upload f : large)
+		{
+			plan.add(f);
+
+			for(int i = 0; i < burst && s < small.size(); i++)
+			{
+				plan.add(small.get(s++));
+			}
+		}
+
+		plan.addAll(small.subList(s, small.size()));
+
+		return plan;
+	}
+}
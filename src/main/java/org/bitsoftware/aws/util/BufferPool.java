@@ -0,0 +1,64 @@
+/**
+ * 
+ */
+package org.bitsoftware.aws.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fixed set of reusable direct buffers.
+ * 
+ * Taking a buffer blocks until one is released, so the memory used stays at
+ * the number of buffers times the buffer size.
+ */
+public class BufferPool
+{
+	private final BlockingQueue<ByteBuffer> buffers;
+	private final int bufferSize;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param count number of buffers
+	 * @param bufferSize size of each buffer in bytes
+	 */
+	public BufferPool(int count, int bufferSize)
+	{
+		this.buffers = new ArrayBlockingQueue<>(count);
+		this.bufferSize = bufferSize;
+		
+		for(int i = 0; i < count; i++)
+		{
+			buffers.add(ByteBuffer.allocateDirect(bufferSize));
+		}
+	}
+
+	/** Get the size of each buffer in bytes */
+	public int getBufferSize()
+	{
+		return bufferSize;
+	}
+
+	/** Get the number of buffers in the pool, not taken */
+	public int getAvailable()
+	{
+		return buffers.size();
+	}
+
+	/** Take a cleared buffer, waiting until one is available */
+	public ByteBuffer acquire() throws InterruptedException
+	{
+		ByteBuffer buffer = buffers.take();
+		buffer.clear();
+		
+		return buffer;
+	}
+
+	/** Give a buffer back to the pool */
+	public void release(ByteBuffer buffer)
+	{
+		buffers.add(buffer);
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * 
+ */
+package org.bitsoftware.aws.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream reading the remaining bytes of a buffer.
+ * 
+ * The buffer itself is not changed; mark and reset are supported so the
+ * content can be sent again when a request is retried.
+ */
+public class ByteBufferInputStream extends InputStream
+{
+	private final ByteBuffer buffer;
+
+	/** Constructor */
+	public ByteBufferInputStream(ByteBuffer buffer)
+	{
+		this.buffer = buffer.duplicate();
+		this.buffer.mark();
+	}
+
+	@Override
+	public int read()
+	{
+		if(!buffer.hasRemaining())
+			return -1;
+		
+		return buffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len)
+	{
+		if(len == 0)
+			return 0;
+		
+		if(!buffer.hasRemaining())
+			return -1;
+		
+		len = Math.min(len, buffer.remaining());
+		buffer.get(b, off, len);
+		
+		return len;
+	}
+
+	@Override
+	public long skip(long n)
+	{
+		int skipped = (int)Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skipped);
+		
+		return skipped;
+	}
+
+	@Override
+	public int available()
+	{
+		return buffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit)
+	{
+		buffer.mark();
+	}
+
+	@Override
+	public synchronized void reset()
+	{
+		buffer.reset();
+	}
+}
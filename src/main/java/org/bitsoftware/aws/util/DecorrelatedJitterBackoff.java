@@ -0,0 +1,65 @@
+/**
+ * 
+ */
+package org.bitsoftware.aws.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.retry.RetryPolicy.BackoffStrategy;
+
+/**
+ * Decorrelated jitter backoff.
+ * 
+ * Each delay is picked randomly between the base delay and three times the
+ * previous delay, capped to the maximum delay, so concurrent retries spread
+ * out instead of hitting the service again at the same moment.
+ */
+public class DecorrelatedJitterBackoff implements BackoffStrategy
+{
+	private final long baseDelay;
+	private final long maxDelay;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param baseDelay minimum delay in milliseconds
+	 * @param maxDelay maximum delay in milliseconds
+	 */
+	public DecorrelatedJitterBackoff(long baseDelay, long maxDelay)
+	{
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Get the next delay
+	 * 
+	 * @param previousDelay previous delay in milliseconds, 0 before the first retry
+	 * @return delay in milliseconds
+	 */
+	public long nextDelay(long previousDelay)
+	{
+		long upper = Math.max(baseDelay, previousDelay * 3);
+		long delay = baseDelay + ThreadLocalRandom.current().nextLong(upper - baseDelay + 1);
+		
+		return Math.min(maxDelay, delay);
+	}
+
+	/**
+	 * The SDK does not keep the previous delay of a request, so the chain of
+	 * delays is replayed up to the current retry.
+	 */
+	@Override
+	public long delayBeforeNextRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception, int retriesAttempted)
+	{
+		long delay = 0;
+		for(int i = 0; i <= retriesAttempted; i++)
+		{
+			delay = nextDelay(delay);
+		}
+		
+		return delay;
+	}
+}
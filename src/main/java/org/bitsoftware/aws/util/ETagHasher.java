@@ -0,0 +1,219 @@
+/**
+ *
+ */
+package org.bitsoftware.aws.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes the ETags S3 gives to uploaded files.
+ *
+ * An object put with a single request has the MD5 of its content as ETag.
+ * An object uploaded in parts has the MD5 of the concatenated MD5s of its
+ * parts, followed by a dash and the number of parts.
+ *
+ * Files, and the parts of a file, are hashed in parallel by a fixed number of
+ * threads, each reading its range sequentially in large blocks. Only a few
+ * ranges per thread are queued, so hashing a whole tree does not queue a task
+ * for every file up front.
+ */
+public class ETagHasher
+{
+	private static final int Read_Buffer_Size = 1024 * 1024;
+
+	/** Ranges queued per hashing thread */
+	private static final int Queued_Ranges = 4;
+
+	private static final char[] Hex_Digits = "0123456789abcdef".toCharArray();
+
+	private final ExecutorService executor;
+	private final Semaphore queued;
+	private final ThreadLocal<ByteBuffer> readBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(Read_Buffer_Size));
+	private final LongAdder hashedBytes = new LongAdder();
+
+	/**
+	 * Constructor
+	 *
+	 * @param threads number of hashing threads
+	 */
+	public ETagHasher(int threads)
+	{
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.queued = new Semaphore(threads * Queued_Ranges);
+	}
+
+	/**
+	 * Start computing the ETag of a file, waiting if enough ranges are already queued
+	 *
+	 * @param file file to hash
+	 * @param partSize size of the parts the file was uploaded in, 0 if it was put with a single request
+	 * @return the ETag, failing with an UncheckedIOException if the file cannot be read
+	 */
+	public CompletableFuture<String> getETag(File file, long partSize) throws InterruptedException
+	{
+		long size = file.length();
+
+		if(partSize <= 0)
+			return hash(file, 0, size).thenApply(ETagHasher::toHex);
+
+		int parts = (int)Math.max(1, (size + partSize - 1) / partSize);
+
+		List<CompletableFuture<byte[]>> partHashes = new ArrayList<>(parts);
+		for(int i = 0; i < parts; i++)
+		{
+			long offset = i * partSize;
+			partHashes.add(hash(file, offset, Math.min(partSize, size - offset)));
+		}
+
+		return CompletableFuture.allOf(partHashes.toArray(new CompletableFuture<?>[parts])).thenApply(v ->
+		{
+			MessageDigest md = newMD5();
+			for(CompletableFuture<byte[]> partHash : partHashes)
+			{
+				md.update(partHash.join());
+			}
+
+			return toHex(md.digest()) + "-" + parts;
+		});
+	}
+
+	/** Get the number of bytes hashed so far */
+	public long getHashedBytes()
+	{
+		return hashedBytes.sum();
+	}
+
+	/** Wait for the ETags being computed and stop the hashing threads */
+	public void awaitTermination() throws InterruptedException
+	{
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	/** Stop the hashing threads without waiting */
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Get the number of parts of an object from its ETag
+	 *
+	 * @return the number of parts, 0 if the object was put with a single request
+	 */
+	public static int getPartCount(String etag)
+	{
+		int idx = etag.lastIndexOf('-');
+		if(idx < 0)
+			return 0;
+
+		try
+		{
+			return Integer.parseInt(etag.substring(idx + 1));
+		}
+		catch(NumberFormatException e)
+		{
+			return 0;
+		}
+	}
+
+	private CompletableFuture<byte[]> hash(File file, long offset, long length) throws InterruptedException
+	{
+		queued.acquire();
+
+		try
+		{
+			return CompletableFuture.supplyAsync(() ->
+			{
+				try
+				{
+					return hashRange(file, offset, length);
+				}
+				catch(IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+				finally
+				{
+					queued.release();
+				}
+			}, executor);
+		}
+		catch(RuntimeException e)
+		{
+			queued.release();
+			throw e;
+		}
+	}
+
+	private byte[] hashRange(File file, long offset, long length) throws IOException
+	{
+		MessageDigest md = newMD5();
+		ByteBuffer buffer = readBuffer.get();
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			long position = offset;
+			long end = offset + length;
+
+			while(position < end)
+			{
+				buffer.clear();
+				buffer.limit((int)Math.min(buffer.capacity(), end - position));
+
+				int read = channel.read(buffer, position);
+				if(read < 0)
+					throw new EOFException("File \"" + file.getPath() + "\" was truncated while being hashed.");
+
+				position += read;
+				hashedBytes.add(read);
+
+				buffer.flip();
+				md.update(buffer);
+			}
+		}
+
+		return md.digest();
+	}
+
+	private static MessageDigest newMD5()
+	{
+		try
+		{
+			return MessageDigest.getInstance("MD5");
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			// every Java platform supports MD5
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes)
+	{
+		char[] hex = new char[bytes.length * 2];
+		for(int i = 0; i < bytes.length; i++)
+		{
+			hex[i * 2] = Hex_Digits[(bytes[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = Hex_Digits[bytes[i] & 0xf];
+		}
+
+		return new String(hex);
+	}
+}
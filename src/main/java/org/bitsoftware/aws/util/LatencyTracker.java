@@ -0,0 +1,66 @@
+/**
+ * 
+ */
+package org.bitsoftware.aws.util;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latencies and computes percentiles over them.
+ */
+public class LatencyTracker
+{
+	private final long[] samples;
+	private final int minSamples;
+
+	private int next;
+	private int count;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param capacity number of most recent samples kept
+	 * @param minSamples number of samples needed before a percentile is reported
+	 */
+	public LatencyTracker(int capacity, int minSamples)
+	{
+		this.samples = new long[capacity];
+		this.minSamples = minSamples;
+	}
+
+	/** Record a latency in milliseconds */
+	public synchronized void record(long latency)
+	{
+		samples[next] = latency;
+		next = (next + 1) % samples.length;
+		
+		if(count < samples.length)
+			count++;
+	}
+
+	/**
+	 * Get a percentile of the recorded latencies
+	 * 
+	 * @param percentile percentile between 0 and 100
+	 * @return latency in milliseconds or -1 if there are not enough samples yet
+	 */
+	public long getPercentile(double percentile)
+	{
+		long[] sorted;
+		
+		synchronized(this)
+		{
+			if(count < minSamples)
+				return -1;
+			
+			sorted = Arrays.copyOf(samples, count);
+		}
+		
+		Arrays.sort(sorted);
+		
+		int idx = (int)Math.ceil(percentile / 100 * sorted.length) - 1;
+		idx = Math.max(0, Math.min(sorted.length - 1, idx));
+		
+		return sorted[idx];
+	}
+}
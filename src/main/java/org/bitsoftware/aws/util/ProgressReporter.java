@@ -0,0 +1,335 @@
+/**
+ *
+ */
+package org.bitsoftware.aws.util;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.event.ProgressEvent;
+import com.amazonaws.event.ProgressEventType;
+import com.amazonaws.event.SyncProgressListener;
+
+/**
+ * Reports the progress of many concurrent transfers.
+ *
+ * Transfers only update counters that do not lock, and a single background
+ * thread prints the aggregated progress at a fixed interval: files and bytes
+ * done, the transfer rate, the estimated time left and the largest transfers
+ * in flight. Lines about single files are queued by the transfers and written
+ * by the same thread in batches, so transfers never wait for the console.
+ */
+public class ProgressReporter
+{
+	/** Interval at which queued lines are written, in milliseconds */
+	private static final long Line_Flush_Interval = 200;
+
+	/** Number of transfers in flight shown, largest first */
+	private static final int Largest_Shown = 3;
+
+	private static final Comparator<Transfer> Largest_First = new Comparator<Transfer>()
+	{
+		@Override
+		public int compare(Transfer t1, Transfer t2)
+		{
+			return Long.compare(t2.size, t1.size);
+		}
+	};
+
+	private final LongAdder totalFiles = new LongAdder();
+	private final LongAdder totalBytes = new LongAdder();
+	private final LongAdder doneFiles = new LongAdder();
+	private final LongAdder failedFiles = new LongAdder();
+	private final LongAdder doneBytes = new LongAdder();
+
+	private final Set<Transfer> inFlight = ConcurrentHashMap.newKeySet();
+	private final ConcurrentLinkedQueue<String> lines = new ConcurrentLinkedQueue<>();
+
+	private final long interval;
+	private final PrintStream out;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private final Thread reporterThread;
+
+	private long startNanos;
+	private long lastNanos;
+	private long lastBytes;
+	private long lastFiles;
+
+	/**
+	 * Constructor
+	 *
+	 * @param interval interval at which the progress is printed, in milliseconds; 0 to only print queued lines
+	 * @param out stream the progress is printed to
+	 */
+	public ProgressReporter(long interval, PrintStream out)
+	{
+		this.interval = interval;
+		this.out = out;
+
+		reporterThread = new Thread(this::report, "progress-reporter");
+		reporterThread.setDaemon(true);
+	}
+
+	/** Start printing the progress */
+	public void start()
+	{
+		startNanos = System.nanoTime();
+		lastNanos = startNanos;
+		reporterThread.start();
+	}
+
+	/** Stop printing the progress, after writing the queued lines and a summary */
+	public void stop()
+	{
+		stopped.countDown();
+
+		try
+		{
+			reporterThread.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Add files to transfer to the totals */
+	public void addTotal(long files, long bytes)
+	{
+		totalFiles.add(files);
+		totalBytes.add(bytes);
+	}
+
+	/**
+	 * Start a transfer
+	 *
+	 * @param name name shown while the transfer is among the largest in flight
+	 * @param size size of the transfer in bytes
+	 */
+	public Transfer startTransfer(String name, long size)
+	{
+		Transfer transfer = new Transfer(name, size);
+		inFlight.add(transfer);
+
+		return transfer;
+	}
+
+	/** Get the bytes transferred so far */
+	long getDoneBytes()
+	{
+		return doneBytes.sum();
+	}
+
+	/** Queue a line for writing */
+	public void println(String line)
+	{
+		lines.add(line);
+	}
+
+	/** Write the queued lines now */
+	public synchronized void flush()
+	{
+		StringBuilder sb = new StringBuilder();
+		drainLines(sb);
+
+		if(sb.length() > 0)
+			out.print(sb);
+	}
+
+	private void report()
+	{
+		try
+		{
+			long nextReport = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+
+			while(!stopped.await(Line_Flush_Interval, TimeUnit.MILLISECONDS))
+			{
+				flush();
+
+				long now = System.nanoTime();
+				if(interval > 0 && now >= nextReport)
+				{
+					StringBuilder sb = new StringBuilder();
+					appendProgress(sb, now);
+					nextReport = now + TimeUnit.MILLISECONDS.toNanos(interval);
+
+					if(sb.length() > 0)
+						out.print(sb);
+				}
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		flush();
+
+		StringBuilder sb = new StringBuilder();
+		appendSummary(sb);
+
+		if(sb.length() > 0)
+			out.print(sb);
+	}
+
+	private void drainLines(StringBuilder sb)
+	{
+		String line;
+		while((line = lines.poll()) != null)
+		{
+			sb.append(line).append(System.lineSeparator());
+		}
+	}
+
+	private void appendProgress(StringBuilder sb, long now)
+	{
+		long files = doneFiles.sum();
+		long bytes = doneBytes.sum();
+
+		// nothing to report while idle, e.g. when watching a folder
+		if(files == lastFiles && bytes == lastBytes && inFlight.isEmpty())
+			return;
+
+		long rate = (bytes - lastBytes) * 1000 / Math.max(1, TimeUnit.NANOSECONDS.toMillis(now - lastNanos));
+		long averageRate = bytes * 1000 / Math.max(1, TimeUnit.NANOSECONDS.toMillis(now - startNanos));
+
+		lastNanos = now;
+		lastBytes = bytes;
+		lastFiles = files;
+
+		long total = totalBytes.sum();
+
+		sb.append("    Progress: ").append(files).append(" of ").append(totalFiles.sum()).append(" file(s)");
+
+		long failed = failedFiles.sum();
+		if(failed > 0)
+			sb.append(" (").append(failed).append(" failed)");
+
+		sb.append(", ").append(Utils.printSizeFromBytes(bytes)).append(" of ").append(Utils.printSizeFromBytes(total));
+		sb.append(", ").append(Utils.printSizeFromBytes(Math.max(0, rate))).append("/s");
+
+		if(averageRate > 0 && total > bytes)
+			sb.append(", about ").append(Utils.printDurationFromMillis((total - bytes) * 1000 / averageRate)).append(" left");
+
+		ArrayList<Transfer> largest = new ArrayList<>(inFlight);
+		if(!largest.isEmpty())
+		{
+			Collections.sort(largest, Largest_First);
+
+			sb.append("; in flight:");
+			for(int i = 0; i < largest.size() && i < Largest_Shown; i++)
+			{
+				Transfer t = largest.get(i);
+				sb.append(i > 0 ? ", " : " ").append(t.name).append(" ").append(t.getPercent()).append("% of ")
+					.append(Utils.printSizeFromBytes(t.size));
+			}
+
+			if(largest.size() > Largest_Shown)
+				sb.append(" and ").append(largest.size() - Largest_Shown).append(" more");
+		}
+
+		sb.append(System.lineSeparator());
+	}
+
+	private void appendSummary(StringBuilder sb)
+	{
+		long files = doneFiles.sum();
+		long failed = failedFiles.sum();
+		if(files == 0 && failed == 0)
+			return;
+
+		long bytes = doneBytes.sum();
+		long rate = bytes * 1000 / Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+
+		sb.append("    Transferred ").append(files).append(" file(s), ").append(Utils.printSizeFromBytes(bytes))
+			.append(" at ").append(Utils.printSizeFromBytes(rate)).append("/s");
+
+		if(failed > 0)
+			sb.append(", ").append(failed).append(" failed");
+
+		sb.append(".").append(System.lineSeparator());
+	}
+
+	/**
+	 * Transfer in flight. As a progress listener of its requests it counts the
+	 * bytes sent, so the progress of large files shows before they complete.
+	 * It is called on the sending threads, counting takes no locks.
+	 */
+	public class Transfer extends SyncProgressListener
+	{
+		/** Value of the bytes sent once the transfer is done */
+		private static final long Done = Long.MIN_VALUE;
+
+		private final String name;
+		private final long size;
+		private final AtomicLong transferred = new AtomicLong();
+
+		private Transfer(String name, long size)
+		{
+			this.name = name;
+			this.size = size;
+		}
+
+		@Override
+		public void progressChanged(ProgressEvent progressEvent)
+		{
+			ProgressEventType type = progressEvent.getEventType();
+
+			// a request being retried sends its content again, its reset event takes back the bytes sent
+			if(type != ProgressEventType.REQUEST_BYTE_TRANSFER_EVENT && type != ProgressEventType.HTTP_REQUEST_CONTENT_RESET_EVENT)
+				return;
+
+			long bytes = progressEvent.getBytesTransferred();
+
+			// a hedged request can still be sending after the transfer is done
+			long sent;
+			do
+			{
+				sent = transferred.get();
+				if(sent == Done)
+					return;
+			}
+			while(!transferred.compareAndSet(sent, sent + bytes));
+
+			doneBytes.add(bytes);
+		}
+
+		/**
+		 * End the transfer
+		 *
+		 * @param success true if the file was transferred
+		 */
+		public void done(boolean success)
+		{
+			if(!inFlight.remove(this))
+				return;
+
+			// counts the whole file once, whatever retried or hedged requests sent
+			long sent = transferred.getAndSet(Done);
+			doneBytes.add(success ? size - sent : -sent);
+
+			if(success)
+				doneFiles.increment();
+			else
+				failedFiles.increment();
+		}
+
+		private long getPercent()
+		{
+			long sent = transferred.get();
+			if(sent == Done)
+				return 100;
+
+			return size > 0 ? Math.max(0, Math.min(100, sent * 100 / size)) : 0;
+		}
+	}
+}
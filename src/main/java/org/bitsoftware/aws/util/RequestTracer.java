@@ -0,0 +1,407 @@
+/**
+ *
+ */
+package org.bitsoftware.aws.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ssl.DefaultHostnameVerifier;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContexts;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.http.conn.ssl.SdkTLSSocketFactory;
+import com.amazonaws.internal.SdkFilterInputStream;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.util.AWSRequestMetrics.Field;
+import com.amazonaws.util.TimingInfo;
+
+/**
+ * Traces the phases of the requests sent by S3 clients.
+ *
+ * For each sampled request a trace event is written with the time spent on
+ * credentials, marshalling, signing, sending, receiving and between retries,
+ * the time spent reading the request content and, for each attempt, whether
+ * it opened a new connection, reused a pooled one or failed without one.
+ * New connections get their own events for the TCP connect and the TLS
+ * handshake.
+ *
+ * Requests are sampled by object key, so all requests of a sampled file are
+ * traced, including its parts and retries.
+ *
+ * Attach it to a client with {@link #configure(ClientConfiguration)},
+ * withRequestHandlers and withMetricsCollector({@link #getMetricCollector()}).
+ */
+public class RequestTracer extends RequestHandler2
+{
+	private static final HandlerContextKey<RequestTrace> Trace_Key = new HandlerContextKey<>("awsproxy.trace");
+
+	/** Request phases reported from the SDK request metrics <field, trace argument> */
+	private static final LinkedHashMap<Field, String> Phases = new LinkedHashMap<>();
+	static
+	{
+		Phases.put(Field.CredentialsRequestTime, "credentials_ms");
+		Phases.put(Field.RequestMarshallTime, "marshall_ms");
+		Phases.put(Field.RequestSigningTime, "signing_ms");
+		Phases.put(Field.HttpRequestTime, "http_ms");
+		Phases.put(Field.HttpClientSendRequestTime, "send_ms");
+		Phases.put(Field.HttpClientReceiveResponseTime, "receive_ms");
+		Phases.put(Field.ResponseProcessingTime, "response_ms");
+		Phases.put(Field.RetryPauseTime, "retry_pause_ms");
+	}
+
+	private final TraceWriter writer;
+	private final double sampleRate;
+
+	/** Attempt being executed by the current thread, if sampled */
+	private final ThreadLocal<Attempt> currentAttempt = new ThreadLocal<>();
+
+	/** Time spent reading the content of sampled objects <key, nanos> */
+	private final ConcurrentHashMap<String, LongAdder> readNanos = new ConcurrentHashMap<>();
+
+	private final RequestMetricCollector metricCollector = new RequestMetricCollector()
+	{
+		@Override
+		public void collectMetrics(Request<?> request, Response<?> response)
+		{
+			traceRequest(request, response);
+		}
+	};
+
+	/**
+	 * Constructor
+	 *
+	 * @param writer trace writer
+	 * @param sampleRate fraction of the objects traced, between 0 and 1
+	 */
+	public RequestTracer(TraceWriter writer, double sampleRate)
+	{
+		this.writer = writer;
+		this.sampleRate = sampleRate;
+	}
+
+	/** Get the metric collector to attach to the traced clients */
+	public RequestMetricCollector getMetricCollector()
+	{
+		return metricCollector;
+	}
+
+	/** Set up the client configuration for tracing connection setup */
+	public ClientConfiguration configure(ClientConfiguration clientConfig)
+	{
+		clientConfig.getApacheHttpClientConfig().setSslSocketFactory(new TracingSocketFactory());
+		return clientConfig;
+	}
+
+	/** Check if the requests for an object are traced */
+	public boolean isSampled(String key)
+	{
+		if(sampleRate >= 1)
+			return true;
+
+		if(key == null)
+			return ThreadLocalRandom.current().nextDouble() < sampleRate;
+
+		// stable per key, so every request of an object is either traced or not
+		int bucket = (key.hashCode() & Integer.MAX_VALUE) % 10000;
+		return bucket < sampleRate * 10000;
+	}
+
+	/**
+	 * Trace a local operation, e.g. scanning the files
+	 *
+	 * @param name event name
+	 * @param startNanos start time, from System.nanoTime()
+	 */
+	public void traceLocal(String name, long startNanos)
+	{
+		writer.complete(name, "local", startNanos, System.nanoTime(), null);
+	}
+
+	/**
+	 * Trace the upload of a file, including the time spent reading it
+	 *
+	 * @param key object key
+	 * @param size file size in bytes
+	 * @param startNanos start time, from System.nanoTime()
+	 * @param success true if the file was uploaded
+	 */
+	public void traceFile(String key, long size, long startNanos, boolean success)
+	{
+		long endNanos = System.nanoTime();
+
+		LongAdder read = readNanos.remove(key);
+
+		if(!isSampled(key))
+			return;
+
+		LinkedHashMap<String, Object> args = new LinkedHashMap<>();
+		args.put("bytes", size);
+		args.put("read_ms", read == null ? 0 : millis(read.sum()));
+		args.put("success", success);
+
+		writer.complete(key, "file", startNanos, endNanos, args);
+	}
+
+	@Override
+	public void beforeRequest(Request<?> request)
+	{
+		String key = getKey(request.getOriginalRequest());
+
+		if(!isSampled(key))
+			return;
+
+		RequestTrace trace = new RequestTrace(key);
+		request.addHandlerContext(Trace_Key, trace);
+
+		InputStream content = request.getContent();
+		if(content != null && key != null)
+		{
+			LongAdder read = readNanos.computeIfAbsent(key, k -> new LongAdder());
+			request.setContent(new TimedInputStream(content, read, trace));
+		}
+	}
+
+	@Override
+	public void beforeAttempt(HandlerBeforeAttemptContext context)
+	{
+		RequestTrace trace = context.getRequest().getHandlerContext(Trace_Key);
+
+		if(trace == null)
+		{
+			currentAttempt.remove();
+			return;
+		}
+
+		Attempt attempt = new Attempt();
+		trace.Attempts.add(attempt);
+		currentAttempt.set(attempt);
+	}
+
+	@Override
+	public void afterAttempt(HandlerAfterAttemptContext context)
+	{
+		Attempt attempt = currentAttempt.get();
+		currentAttempt.remove();
+
+		if(attempt == null)
+			return;
+
+		// an error response from the service still went through a connection
+		Exception e = context.getException();
+		if(e instanceof AmazonServiceException)
+			attempt.Status = ((AmazonServiceException)e).getStatusCode();
+		else if(e != null)
+			attempt.Failed = true;
+		else if(context.getResponse() != null && context.getResponse().getHttpResponse() != null)
+			attempt.Status = context.getResponse().getHttpResponse().getStatusCode();
+	}
+
+	private void traceRequest(Request<?> request, Response<?> response)
+	{
+		RequestTrace trace = request.getHandlerContext(Trace_Key);
+		if(trace == null)
+			return;
+
+		long endNanos = System.nanoTime();
+
+		LinkedHashMap<String, Object> args = new LinkedHashMap<>();
+
+		TimingInfo timing = request.getAWSRequestMetrics().getTimingInfo();
+		for(Map.Entry<Field, String> phase : Phases.entrySet())
+		{
+			List<TimingInfo> measurements = timing.getAllSubMeasurements(phase.getKey().name());
+			if(measurements == null)
+				continue;
+
+			double total = 0;
+			for(TimingInfo t : measurements)
+			{
+				Double taken = t.getTimeTakenMillisIfKnown();
+				if(taken != null)
+					total += taken;
+			}
+
+			args.put(phase.getValue(), Math.round(total * 1000) / 1000.0);
+		}
+
+		args.put("read_ms", millis(trace.ReadNanos));
+		args.put("attempts", trace.Attempts.size());
+
+		StringBuilder reused = new StringBuilder();
+		for(Attempt a : trace.Attempts)
+		{
+			if(reused.length() > 0)
+				reused.append(',');
+			if(a.NewConnection)
+				reused.append("new");
+			else
+				reused.append(a.Failed ? "failed" : "reused");
+		}
+		args.put("connections", reused.toString());
+
+		Attempt last = trace.Attempts.isEmpty() ? null : trace.Attempts.get(trace.Attempts.size() - 1);
+		if(last != null && last.Status > 0)
+			args.put("status", last.Status);
+		else
+			args.put("status", "error");
+
+		String name = request.getHttpMethod() + " " + (trace.Key != null ? trace.Key : request.getResourcePath());
+		writer.complete(name, "request", trace.StartNanos, endNanos, args);
+	}
+
+	private void traceConnect(String phase, HttpHost host, long startNanos)
+	{
+		Attempt attempt = currentAttempt.get();
+		if(attempt == null)
+			return;
+
+		attempt.NewConnection = true;
+
+		LinkedHashMap<String, Object> args = new LinkedHashMap<>();
+		args.put("host", host.getHostName());
+
+		writer.complete(phase, "connection", startNanos, System.nanoTime(), args);
+	}
+
+	private static String getKey(AmazonWebServiceRequest request)
+	{
+		if(request instanceof PutObjectRequest)
+			return ((PutObjectRequest)request).getKey();
+		if(request instanceof UploadPartRequest)
+			return ((UploadPartRequest)request).getKey();
+		if(request instanceof InitiateMultipartUploadRequest)
+			return ((InitiateMultipartUploadRequest)request).getKey();
+		if(request instanceof CompleteMultipartUploadRequest)
+			return ((CompleteMultipartUploadRequest)request).getKey();
+		if(request instanceof AbortMultipartUploadRequest)
+			return ((AbortMultipartUploadRequest)request).getKey();
+
+		return null;
+	}
+
+	private static double millis(long nanos)
+	{
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+
+	private static class RequestTrace
+	{
+		final String Key;
+		final long StartNanos = System.nanoTime();
+		final List<Attempt> Attempts = new ArrayList<>(1);
+		long ReadNanos;
+
+		RequestTrace(String key)
+		{
+			this.Key = key;
+		}
+	}
+
+	private static class Attempt
+	{
+		boolean NewConnection;
+		boolean Failed;
+		int Status;
+	}
+
+	/** Counts the time spent reading the request content */
+	private static class TimedInputStream extends SdkFilterInputStream
+	{
+		private final LongAdder fileReadNanos;
+		private final RequestTrace trace;
+
+		TimedInputStream(InputStream in, LongAdder fileReadNanos, RequestTrace trace)
+		{
+			super(in);
+			this.fileReadNanos = fileReadNanos;
+			this.trace = trace;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			long start = System.nanoTime();
+			try
+			{
+				return super.read();
+			}
+			finally
+			{
+				addReadTime(System.nanoTime() - start);
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			long start = System.nanoTime();
+			try
+			{
+				return super.read(b, off, len);
+			}
+			finally
+			{
+				addReadTime(System.nanoTime() - start);
+			}
+		}
+
+		private void addReadTime(long nanos)
+		{
+			fileReadNanos.add(nanos);
+			trace.ReadNanos += nanos;
+		}
+	}
+
+	/** TLS socket factory of the SDK, tracing the TCP connect and TLS handshake of new connections */
+	private class TracingSocketFactory extends SdkTLSSocketFactory
+	{
+		TracingSocketFactory()
+		{
+			super(SSLContexts.createDefault(), new DefaultHostnameVerifier());
+		}
+
+		@Override
+		public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+				InetSocketAddress localAddress, HttpContext context) throws IOException
+		{
+			long start = System.nanoTime();
+			Socket s = super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+			traceConnect("connect+tls", host, start);
+			return s;
+		}
+
+		@Override
+		public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException
+		{
+			long start = System.nanoTime();
+			Socket s = super.createLayeredSocket(socket, target, port, context);
+			traceConnect("tls", new HttpHost(target, port), start);
+			return s;
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/**
+ *
+ */
+package org.bitsoftware.aws.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes trace events to a file in the Chrome trace event JSON format,
+ * which can be opened in chrome://tracing or https://ui.perfetto.dev.
+ *
+ * Events are written by a background thread. When it falls behind and its
+ * queue is full, new events are dropped instead of slowing down the caller.
+ * The file is flushed whenever the queue is idle and closed on shutdown, so
+ * the trace of a task that runs until it is stopped, e.g. watching a folder,
+ * is not lost.
+ */
+public class TraceWriter implements Closeable
+{
+	private static final int Max_Queued_Events = 64 * 1024;
+
+	/** Time without events after which the written events are flushed, in milliseconds */
+	private static final long Flush_Interval = 1000;
+
+	private static final String End_Of_Trace = "";
+
+	private final BlockingQueue<String> events = new ArrayBlockingQueue<>(Max_Queued_Events);
+	private final AtomicLong droppedEvents = new AtomicLong();
+	private final long startNanos = System.nanoTime();
+
+	private final Writer out;
+	private final Thread writerThread;
+	private final Thread shutdownHook;
+
+	private IOException writeError;
+	private boolean closed;
+
+	/** Constructor */
+	public TraceWriter(File file) throws IOException
+	{
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+		out.write("[");
+
+		writerThread = new Thread(this::writeEvents, "trace-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+
+		shutdownHook = new Thread(() ->
+		{
+			try
+			{
+				close();
+			}
+			catch(IOException e)
+			{
+				System.err.println("Cannot write trace file: " + e.getMessage());
+			}
+		}, "trace-close");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Add a complete event
+	 *
+	 * @param name event name
+	 * @param category event category
+	 * @param startNanos start time, from System.nanoTime()
+	 * @param endNanos end time, from System.nanoTime()
+	 * @param args event arguments, null for none
+	 */
+	public void complete(String name, String category, long startNanos, long endNanos, Map<String, Object> args)
+	{
+		StringBuilder sb = new StringBuilder(160);
+
+		sb.append("{\"name\":");
+		appendString(sb, name);
+		sb.append(",\"cat\":");
+		appendString(sb, category);
+		sb.append(",\"ph\":\"X\",\"pid\":1,\"tid\":").append(Thread.currentThread().getId());
+		sb.append(",\"ts\":").append((startNanos - this.startNanos) / 1000);
+		sb.append(",\"dur\":").append(Math.max(0, endNanos - startNanos) / 1000);
+
+		if(args != null && !args.isEmpty())
+		{
+			sb.append(",\"args\":{");
+
+			boolean first = true;
+			for(Map.Entry<String, Object> arg : args.entrySet())
+			{
+				if(!first)
+					sb.append(',');
+				first = false;
+
+				appendString(sb, arg.getKey());
+				sb.append(':');
+
+				Object value = arg.getValue();
+				if(value instanceof Number || value instanceof Boolean)
+					sb.append(value);
+				else
+					appendString(sb, String.valueOf(value));
+			}
+
+			sb.append('}');
+		}
+
+		sb.append('}');
+
+		if(!events.offer(sb.toString()))
+			droppedEvents.incrementAndGet();
+	}
+
+	/** Get the number of events dropped because the writer fell behind */
+	public long getDroppedEvents()
+	{
+		return droppedEvents.get();
+	}
+
+	/** Write the queued events and close the file */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed = true;
+
+		try
+		{
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		}
+		catch(IllegalStateException e)
+		{
+			// closing from the shutdown hook
+		}
+
+		try
+		{
+			events.put(End_Of_Trace);
+			writerThread.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		try
+		{
+			out.write("\n]\n");
+		}
+		finally
+		{
+			out.close();
+		}
+
+		if(writeError != null)
+			throw writeError;
+	}
+
+	private void writeEvents()
+	{
+		boolean first = true;
+		boolean unflushed = false;
+
+		try
+		{
+			while(true)
+			{
+				String event = events.poll(Flush_Interval, TimeUnit.MILLISECONDS);
+				if(event == End_Of_Trace)
+					break;
+
+				if(writeError != null)
+					continue;
+
+				try
+				{
+					if(event == null)
+					{
+						if(unflushed)
+							out.flush();
+						unflushed = false;
+						continue;
+					}
+
+					out.write(first ? "\n" : ",\n");
+					out.write(event);
+					first = false;
+					unflushed = true;
+				}
+				catch(IOException e)
+				{
+					writeError = e;
+				}
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void appendString(StringBuilder sb, String s)
+	{
+		sb.append('"');
+
+		for(int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+
+			switch(c)
+			{
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if(c < 0x20)
+					sb.append(String.format("\\u%04x", (int)c));
+				else
+					sb.append(c);
+			}
+		}
+
+		sb.append('"');
+	}
+}
@@ -3,6 +3,9 @@
  */
 package org.bitsoftware.aws.util;
 
+import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.regions.Regions;
+
 /**
  * @author Robert Hindli
  * @date Apr 18, 2017
@@ -21,7 +24,7 @@ public class Utils
 
 	public static String printDurationFromMillis(long duration)
 	{
-		StringBuffer res = new StringBuffer();
+		StringBuilder res = new StringBuilder();
 		long temp = 0;
 		if (duration >= ONE_SECOND)
 		{
@@ -39,7 +42,7 @@ public class Utils
 				res.append(temp).append(" minute").append(temp > 1 ? "s" : "");
 			}
 
-			if (!res.toString().equals("") && duration >= ONE_SECOND)
+			if (res.length() > 0 && duration >= ONE_SECOND)
 			{
 				res.append(" and ");
 			}
@@ -57,4 +60,74 @@ public class Utils
 		}
 	}
 
+	/**
+	 * Check if a region name is valid.
+	 * 
+	 * Known regions are looked up in the SDK's region enumeration, which is much
+	 * faster than loading the endpoints metadata. Other names are checked against
+	 * the metadata, so regions newer than the enumeration are still accepted.
+	 */
+	public static boolean isValidRegionName(String regionName)
+	{
+		try
+		{
+			Regions.fromName(regionName);
+			return true;
+		}
+		catch(IllegalArgumentException e)
+		{
+		}
+
+		try
+		{
+			return RegionUtils.getRegion(regionName) != null;
+		}
+		catch(Exception e)
+		{
+			return false;
+		}
+	}
+
+	private final static String[] SIZE_UNITS = { "bytes", "KB", "MB", "GB", "TB" };
+
+	public static String printSizeFromBytes(long size)
+	{
+		if (size < 1024)
+		{
+			return size + " bytes";
+		}
+
+		double value = size;
+		int unit = 0;
+		while (value >= 1024 && unit < SIZE_UNITS.length - 1)
+		{
+			value /= 1024;
+			unit++;
+		}
+
+		return String.format("%.1f %s", value, SIZE_UNITS[unit]);
+	}
+
+	/**
+	 * Normalize a path used in S3 keys: forward slashes, without leading or trailing slashes
+	 */
+	public static String normalizePath(String path)
+	{
+		if(path != null)
+			path = path.trim();
+		
+		if(path == null || path.isEmpty())
+			return path;
+		
+		path = path.replace("\\", "/");
+		
+		//remove any / from the beginning
+		path = path.replaceAll("^/+", "");
+
+		//remove any number of / from the end
+		path = path.replaceAll("/+$", "");
+		
+		return path;
+	}
+
 }
@@ -0,0 +1,90 @@
+package org.bitsoftware.aws.task;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for coalescing folder events into stable files.
+ */
+public class DirectoryWatcherTest
+    extends TestCase
+{
+    private static final long Debounce = 1000;
+
+    private File dir;
+    private File file;
+    private DirectoryWatcher watcher;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory( "watch" ).toFile();
+        file = new File( dir, "a.txt" );
+        write( "a", 1000000 );
+        watcher = new DirectoryWatcher( dir, false, Debounce );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        file.delete();
+        dir.delete();
+    }
+
+    private void write( String content, long lastModified ) throws Exception
+    {
+        Files.write( file.toPath(), content.getBytes( StandardCharsets.US_ASCII ) );
+        file.setLastModified( lastModified );
+    }
+
+    public void testEventsAreCoalesced()
+    {
+        watcher.touch( file.toPath(), 0 );
+        watcher.touch( file.toPath(), 500 );
+        watcher.touch( file.toPath(), 900 );
+
+        assertTrue( watcher.takeStableFiles( 1500 ).isEmpty() );
+
+        List<File> stable = watcher.takeStableFiles( 1900 );
+        assertEquals( 1, stable.size() );
+        assertEquals( file, stable.get( 0 ) );
+
+        assertTrue( watcher.takeStableFiles( 5000 ).isEmpty() );
+    }
+
+    public void testChangedFileWaitsAnotherWindow() throws Exception
+    {
+        watcher.touch( file.toPath(), 0 );
+
+        // written again without an event
+        write( "ab", 2000000 );
+        assertTrue( watcher.takeStableFiles( 1000 ).isEmpty() );
+        assertTrue( watcher.takeStableFiles( 1500 ).isEmpty() );
+
+        assertEquals( 1, watcher.takeStableFiles( 2000 ).size() );
+    }
+
+    public void testUnchangedUploadedFileIsSkipped() throws Exception
+    {
+        watcher.uploaded( file, file.length(), file.lastModified() );
+
+        watcher.touch( file.toPath(), 0 );
+        assertTrue( watcher.takeStableFiles( 1000 ).isEmpty() );
+
+        write( "ab", 2000000 );
+        watcher.touch( file.toPath(), 2000 );
+        assertEquals( 1, watcher.takeStableFiles( 3000 ).size() );
+    }
+
+    public void testDeletedFileIsDropped()
+    {
+        watcher.touch( file.toPath(), 0 );
+        file.delete();
+
+        assertTrue( watcher.takeStableFiles( 1000 ).isEmpty() );
+    }
+}
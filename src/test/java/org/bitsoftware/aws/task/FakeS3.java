@@ -0,0 +1,182 @@
+package org.bitsoftware.aws.task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+/**
+ * In memory S3 bucket for testing uploads, which can be slow or fail parts.
+ */
+class FakeS3
+    extends AbstractAmazonS3
+{
+    final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    final Set<String> aborted = ConcurrentHashMap.newKeySet();
+    final AtomicInteger partRequests = new AtomicInteger();
+    final AtomicInteger putRequests = new AtomicInteger();
+
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final AtomicInteger nextUploadId = new AtomicInteger();
+
+    private long delayMillis;
+    private int failedPart;
+    private int failedPartStatus;
+    private int failures;
+
+    /** Delay every part and put */
+    FakeS3 slow( long delayMillis )
+    {
+        this.delayMillis = delayMillis;
+        return this;
+    }
+
+    /** Fail a part a number of times with a status code */
+    FakeS3 failPart( int partNumber, int status, int times )
+    {
+        this.failedPart = partNumber;
+        this.failedPartStatus = status;
+        this.failures = times;
+        return this;
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload( InitiateMultipartUploadRequest request )
+    {
+        String uploadId = "upload-" + nextUploadId.incrementAndGet();
+        uploads.put( uploadId, new TreeMap<Integer, byte[]>() );
+
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setUploadId( uploadId );
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart( UploadPartRequest request )
+    {
+        partRequests.incrementAndGet();
+        delay();
+
+        synchronized( this )
+        {
+            if( request.getPartNumber() == failedPart && failures > 0 )
+            {
+                failures--;
+                throw error( failedPartStatus );
+            }
+        }
+
+        byte[] content = read( request.getInputStream() );
+        Map<Integer, byte[]> parts = uploads.get( request.getUploadId() );
+        synchronized( parts )
+        {
+            parts.put( request.getPartNumber(), content );
+        }
+
+        UploadPartResult result = new UploadPartResult();
+        result.setPartNumber( request.getPartNumber() );
+        result.setETag( "etag-" + request.getPartNumber() );
+        return result;
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload( CompleteMultipartUploadRequest request )
+    {
+        Map<Integer, byte[]> parts = uploads.remove( request.getUploadId() );
+
+        ByteArrayOutputStream object = new ByteArrayOutputStream();
+        synchronized( parts )
+        {
+            for( PartETag part : request.getPartETags() )
+            {
+                byte[] content = parts.get( part.getPartNumber() );
+                object.write( content, 0, content.length );
+            }
+        }
+
+        objects.put( request.getKey(), object.toByteArray() );
+        return new CompleteMultipartUploadResult();
+    }
+
+    @Override
+    public void abortMultipartUpload( AbortMultipartUploadRequest request )
+    {
+        uploads.remove( request.getUploadId() );
+        aborted.add( request.getKey() );
+    }
+
+    @Override
+    public PutObjectResult putObject( PutObjectRequest request )
+    {
+        putRequests.incrementAndGet();
+        delay();
+
+        objects.put( request.getKey(), read( request.getInputStream() ) );
+        return new PutObjectResult();
+    }
+
+    /** Get the number of parts of the multipart uploads in progress */
+    int getPendingParts()
+    {
+        int count = 0;
+        for( Map<Integer, byte[]> parts : uploads.values() )
+            count += parts.size();
+        return count;
+    }
+
+    private void delay()
+    {
+        if( delayMillis <= 0 )
+            return;
+
+        try
+        {
+            Thread.sleep( delayMillis );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static AmazonServiceException error( int status )
+    {
+        AmazonServiceException e = new AmazonServiceException( "Failed with status " + status );
+        e.setStatusCode( status );
+        return e;
+    }
+
+    private static byte[] read( InputStream in )
+    {
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while( ( n = in.read( buffer ) ) >= 0 )
+                out.write( buffer, 0, n );
+            return out.toByteArray();
+        }
+        catch( IOException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+}
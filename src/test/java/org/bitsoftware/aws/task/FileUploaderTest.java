@@ -0,0 +1,54 @@
+package org.bitsoftware.aws.task;
+
+import java.util.concurrent.ExecutionException;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for classifying failed uploads.
+ */
+public class FileUploaderTest
+    extends TestCase
+{
+    private static AmazonServiceException serviceError( int status, String errorCode )
+    {
+        AmazonServiceException e = new AmazonServiceException( "error" );
+        e.setStatusCode( status );
+        e.setErrorCode( errorCode );
+        return e;
+    }
+
+    public void testServerErrorsAreRetryable()
+    {
+        assertTrue( FileUploader.isRetryable( serviceError( 500, "InternalError" ) ) );
+        assertTrue( FileUploader.isRetryable( serviceError( 503, "ServiceUnavailable" ) ) );
+        assertTrue( FileUploader.isRetryable( serviceError( 408, "RequestTimeout" ) ) );
+    }
+
+    public void testThrottlingIsRetryable()
+    {
+        assertTrue( FileUploader.isRetryable( serviceError( 429, "TooManyRequests" ) ) );
+        assertTrue( FileUploader.isRetryable( serviceError( 400, "Throttling" ) ) );
+    }
+
+    public void testClientErrorsAreNotRetryable()
+    {
+        assertFalse( FileUploader.isRetryable( serviceError( 403, "AccessDenied" ) ) );
+        assertFalse( FileUploader.isRetryable( serviceError( 404, "NoSuchBucket" ) ) );
+        assertFalse( FileUploader.isRetryable( serviceError( 400, "InvalidRequest" ) ) );
+    }
+
+    public void testCauseOfExecutionExceptionIsClassified()
+    {
+        assertFalse( FileUploader.isRetryable( new ExecutionException( serviceError( 403, "AccessDenied" ) ) ) );
+        assertTrue( FileUploader.isRetryable( new ExecutionException( serviceError( 503, "SlowDown" ) ) ) );
+    }
+
+    public void testNetworkErrorsAreRetryable()
+    {
+        assertTrue( FileUploader.isRetryable( new AmazonClientException( "Connection reset" ) ) );
+    }
+}
@@ -0,0 +1,82 @@
+package org.bitsoftware.aws.task;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for finding the part size of multipart objects.
+ */
+public class S3VerifyTaskTest
+    extends TestCase
+{
+    private static final long MB = 1024 * 1024;
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory( "verify" ).toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        dir.delete();
+    }
+
+    private S3VerifyTask task( String... extraParams ) throws Exception
+    {
+        String[] params = new String[5 + extraParams.length];
+        params[0] = "-a:key";
+        params[1] = "-s:secret";
+        params[2] = "-r:eu-west-1";
+        params[3] = "-b:bucket";
+        params[4] = "-f:" + dir.getAbsolutePath();
+        System.arraycopy( extraParams, 0, params, 5, extraParams.length );
+
+        return new S3VerifyTask( params );
+    }
+
+    public void testStreamPartSize() throws Exception
+    {
+        assertEquals( 16 * MB, task().getPartSize( 100 * MB, 7 ) );
+    }
+
+    public void testTransferManagerPartSize() throws Exception
+    {
+        S3VerifyTask task = task();
+        assertEquals( 5 * MB, task.getPartSize( 100 * MB, 20 ) );
+
+        // grows above the minimum to fit in 10000 parts
+        long size = 100000 * MB;
+        long partSize = ( size + 9999 ) / 10000;
+        assertEquals( partSize, task.getPartSize( size, 10000 ) );
+    }
+
+    public void testWholeMegabyteFallback() throws Exception
+    {
+        // 8 MB is the only whole number of MB cutting 100 MB in 13 parts
+        assertEquals( 8 * MB, task().getPartSize( 100 * MB, 13 ) );
+    }
+
+    public void testPartSizeParam() throws Exception
+    {
+        // 50 to 66 MB all cut 200 MB in 4 parts
+        assertEquals( 0, task().getPartSize( 200 * MB, 4 ) );
+        assertEquals( 64 * MB, task( "-partsize:64" ).getPartSize( 200 * MB, 4 ) );
+    }
+
+    public void testSinglePart() throws Exception
+    {
+        assertEquals( 100 * MB, task().getPartSize( 100 * MB, 1 ) );
+    }
+
+    public void testAmbiguousPartCount() throws Exception
+    {
+        // 10 and 11 MB both cut 100 MB in 10 parts
+        assertEquals( 0, task().getPartSize( 100 * MB, 10 ) );
+    }
+}
@@ -0,0 +1,77 @@
+package org.bitsoftware.aws.task;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for sharding.
+ */
+public class ShardTest
+    extends TestCase
+{
+    public void testFromParam()
+    {
+        Shard shard = Shard.fromParam( "2/3" );
+        assertEquals( 2, shard.Index );
+        assertEquals( 3, shard.Count );
+
+        assertNull( Shard.fromParam( "0/3" ) );
+        assertNull( Shard.fromParam( "4/3" ) );
+        assertNull( Shard.fromParam( "3" ) );
+        assertNull( Shard.fromParam( "a/b" ) );
+    }
+
+    public void testHashIsFnv1a()
+    {
+        assertEquals( 0xcbf29ce484222325L, Shard.hash( "" ) );
+        assertEquals( 0xaf63dc4c8601ec8cL, Shard.hash( "a" ) );
+    }
+
+    public void testEachFileInExactlyOneShard()
+    {
+        int[] counts = new int[4];
+        for( int i = 0; i < 1000; i++ )
+        {
+            String name = "dir" + ( i % 7 ) + "/file" + i;
+
+            int found = 0;
+            for( int s = 1; s <= 4; s++ )
+            {
+                if( new Shard( s, 4 ).contains( name ) )
+                {
+                    found++;
+                    counts[s - 1]++;
+                }
+            }
+            assertEquals( 1, found );
+        }
+
+        for( int count : counts )
+            assertTrue( count > 150 );
+    }
+
+    public void testSummaryRoundTrip() throws Exception
+    {
+        File folder = Files.createTempDirectory( "shards" ).toFile();
+        try
+        {
+            ShardSummary summary = new ShardSummary( new Shard( 1, 2 ) );
+            summary.add( new File2Upload( new File( folder, "a" ), "x", 1 ) );
+            summary.addFailed();
+            summary.save( folder );
+
+            ShardSummary loaded = ShardSummary.load( folder, 1, 2 );
+            assertTrue( loaded.matches( summary ) );
+            assertEquals( 1, loaded.FailedCount );
+            assertNull( ShardSummary.load( folder, 2, 2 ) );
+        }
+        finally
+        {
+            for( File f : folder.listFiles() )
+                f.delete();
+            folder.delete();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.bitsoftware.aws.task;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for uploading streams to several buckets.
+ */
+public class StreamUploaderTest
+    extends TestCase
+{
+    private static final int Part_Size = 1024;
+    private static final int Buffers = 2;
+
+    private StreamUploader uploader;
+
+    @Override
+    protected void setUp()
+    {
+        uploader = new StreamUploader( Part_Size, Buffers, 2, 1 );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        uploader.shutdown();
+    }
+
+    private static byte[] content( int size )
+    {
+        byte[] content = new byte[size];
+        for( int i = 0; i < size; i++ )
+            content[i] = (byte)( i * 31 );
+        return content;
+    }
+
+    private static Destination destination( String bucket, FakeS3 s3 )
+    {
+        Destination d = new Destination( bucket, "eu-west-1" );
+        d.S3Client = s3;
+        return d;
+    }
+
+    private Map<Destination, Exception> upload( byte[] content, List<Destination> destinations ) throws Exception
+    {
+        return uploader.upload( Channels.newChannel( new ByteArrayInputStream( content ) ), destinations, "key", null );
+    }
+
+    public void testSmallStreamIsPut() throws Exception
+    {
+        FakeS3 s3 = new FakeS3();
+        byte[] content = content( 100 );
+
+        assertTrue( upload( content, Arrays.asList( destination( "a", s3 ) ) ).isEmpty() );
+
+        assertTrue( Arrays.equals( content, s3.objects.get( "key" ) ) );
+        assertEquals( 1, s3.putRequests.get() );
+        assertEquals( 0, s3.partRequests.get() );
+        assertEquals( Buffers, uploader.getAvailableBuffers() );
+    }
+
+    public void testSlowBucketGetsAllParts() throws Exception
+    {
+        FakeS3 fast = new FakeS3();
+        FakeS3 slow = new FakeS3().slow( 20 );
+        byte[] content = content( 10 * Part_Size + 10 );
+
+        assertTrue( upload( content, Arrays.asList( destination( "fast", fast ), destination( "slow", slow ) ) ).isEmpty() );
+
+        assertTrue( Arrays.equals( content, fast.objects.get( "key" ) ) );
+        assertTrue( Arrays.equals( content, slow.objects.get( "key" ) ) );
+        assertEquals( 11, slow.partRequests.get() );
+        assertEquals( Buffers, uploader.getAvailableBuffers() );
+    }
+
+    public void testExactMultipleOfPartSize() throws Exception
+    {
+        FakeS3 s3 = new FakeS3();
+        byte[] content = content( 4 * Part_Size );
+
+        assertTrue( upload( content, Arrays.asList( destination( "a", s3 ) ) ).isEmpty() );
+
+        // no empty part after the last full one
+        assertEquals( 4, s3.partRequests.get() );
+        assertTrue( Arrays.equals( content, s3.objects.get( "key" ) ) );
+        assertEquals( Buffers, uploader.getAvailableBuffers() );
+    }
+
+    public void testFailedPartIsRetriedForItsBucket() throws Exception
+    {
+        FakeS3 ok = new FakeS3();
+        FakeS3 flaky = new FakeS3().failPart( 2, 503, 1 );
+        byte[] content = content( 3 * Part_Size + 1 );
+
+        assertTrue( upload( content, Arrays.asList( destination( "ok", ok ), destination( "flaky", flaky ) ) ).isEmpty() );
+
+        assertEquals( 4, ok.partRequests.get() );
+        assertEquals( 5, flaky.partRequests.get() );
+        assertTrue( Arrays.equals( content, flaky.objects.get( "key" ) ) );
+        assertEquals( Buffers, uploader.getAvailableBuffers() );
+    }
+
+    public void testFailedBucketIsAborted() throws Exception
+    {
+        FakeS3 ok = new FakeS3();
+        FakeS3 denied = new FakeS3().failPart( 2, 403, Integer.MAX_VALUE );
+        Destination failing = destination( "denied", denied );
+        byte[] content = content( 5 * Part_Size );
+
+        Map<Destination, Exception> failures = upload( content, Arrays.asList( destination( "ok", ok ), failing ) );
+
+        assertEquals( 1, failures.size() );
+        assertTrue( failures.containsKey( failing ) );
+        assertTrue( denied.aborted.contains( "key" ) );
+        assertNull( denied.objects.get( "key" ) );
+        assertEquals( 0, denied.getPendingParts() );
+
+        // the other bucket is not held back
+        assertTrue( Arrays.equals( content, ok.objects.get( "key" ) ) );
+        assertEquals( Buffers, uploader.getAvailableBuffers() );
+    }
+}
@@ -0,0 +1,86 @@
+package org.bitsoftware.aws.task;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for upload scheduling.
+ */
+public class UploadSchedulerTest 
+    extends TestCase
+{
+    private static final long MB = 1024 * 1024;
+
+    private List<File2Upload> files( long... sizes )
+    {
+        List<File2Upload> files = new ArrayList<>();
+        for( long size : sizes )
+        {
+            File2Upload f = new File2Upload( new File( "f" + files.size() ), "", 1 );
+            f.Size = size;
+            files.add( f );
+        }
+        return files;
+    }
+
+    private long[] sizes( List<File2Upload> plan )
+    {
+        long[] sizes = new long[plan.size()];
+        for( int i = 0; i < sizes.length; i++ )
+            sizes[i] = plan.get( i ).Size;
+        return sizes;
+    }
+
+    public void testLargestFirstShortensEstimate()
+    {
+        List<File2Upload> files = files( MB, MB, MB, MB, 4 * MB );
+
+        UploadScheduler found = new UploadScheduler( UploadScheduler.Order.NONE, 2, 2 * MB );
+        UploadScheduler largest = new UploadScheduler( UploadScheduler.Order.LARGEST, 2, 2 * MB );
+
+        List<File2Upload> plan = largest.plan( files );
+        assertEquals( 4 * MB, plan.get( 0 ).Size );
+        assertTrue( largest.estimateMillis( plan ) < found.estimateMillis( found.plan( files ) ) );
+    }
+
+    public void testFileAloneGetsAllBandwidth()
+    {
+        List<File2Upload> files = files( 1024 * MB );
+
+        long single = new UploadScheduler( UploadScheduler.Order.NONE, 1, 100 * MB ).estimateMillis( files );
+        long eight = new UploadScheduler( UploadScheduler.Order.NONE, 8, 100 * MB ).estimateMillis( files );
+
+        assertEquals( 10240 + 50, single );
+        assertEquals( single, eight );
+    }
+
+    public void testThreadsShareBandwidth()
+    {
+        // 1 MB/s each until the small file ends after 2 s, then 2 MB/s for the last 2 MB of the large one
+        UploadScheduler scheduler = new UploadScheduler( UploadScheduler.Order.NONE, 2, 2 * MB );
+        assertEquals( 50 + 2000 + 1000, scheduler.estimateMillis( files( 2 * MB, 4 * MB ) ) );
+    }
+
+    public void testSmallestFirst()
+    {
+        UploadScheduler scheduler = new UploadScheduler( UploadScheduler.Order.SMALLEST, 1, MB );
+        long[] plan = sizes( scheduler.plan( files( 3, 1, 2 ) ) );
+        assertEquals( 1, plan[0] );
+        assertEquals( 2, plan[1] );
+        assertEquals( 3, plan[2] );
+    }
+
+    public void testMixedInterleavesLargeAndSmall()
+    {
+        long large = UploadScheduler.Multipart_Threshold;
+        UploadScheduler scheduler = new UploadScheduler( UploadScheduler.Order.MIXED, 2, MB );
+        long[] plan = sizes( scheduler.plan( files( 1, 2, large, 3, 4, 2 * large ) ) );
+
+        assertEquals( 6, plan.length );
+        assertEquals( 2 * large, plan[0] );
+        assertEquals( large, plan[3] );
+    }
+}
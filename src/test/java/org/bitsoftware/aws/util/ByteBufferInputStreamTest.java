@@ -0,0 +1,64 @@
+package org.bitsoftware.aws.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for reading byte buffers as streams.
+ */
+public class ByteBufferInputStreamTest
+    extends TestCase
+{
+    private static byte[] readAll( ByteBufferInputStream in )
+    {
+        byte[] b = new byte[in.available()];
+        int off = 0;
+        int n;
+        while( off < b.length && ( n = in.read( b, off, b.length - off ) ) > 0 )
+            off += n;
+        return b;
+    }
+
+    public void testResetWithoutMarkRestartsFromBeginning()
+    {
+        ByteBufferInputStream in = new ByteBufferInputStream( ByteBuffer.wrap( new byte[] { 1, 2, 3, 4 } ) );
+
+        assertEquals( 1, in.read() );
+        assertEquals( 2, in.read() );
+
+        // the SDK resets the content to retry a request
+        in.reset();
+        assertEquals( 4, in.available() );
+        assertEquals( 1, in.read() );
+    }
+
+    public void testMarkResetRoundTrip()
+    {
+        ByteBufferInputStream in = new ByteBufferInputStream( ByteBuffer.wrap( new byte[] { 1, 2, 3, 4, 5 } ) );
+        assertTrue( in.markSupported() );
+
+        assertEquals( 1, in.read() );
+        in.mark( 100 );
+
+        byte[] first = readAll( in );
+        assertEquals( -1, in.read() );
+
+        in.reset();
+        byte[] second = readAll( in );
+
+        assertEquals( 4, first.length );
+        assertTrue( Arrays.equals( first, second ) );
+    }
+
+    public void testSourceBufferIsNotMoved()
+    {
+        ByteBuffer buffer = ByteBuffer.wrap( new byte[] { 1, 2, 3 } );
+        ByteBufferInputStream in = new ByteBufferInputStream( buffer );
+
+        assertEquals( 3, in.skip( 10 ) );
+        assertEquals( 0, buffer.position() );
+        assertEquals( 3, buffer.remaining() );
+    }
+}
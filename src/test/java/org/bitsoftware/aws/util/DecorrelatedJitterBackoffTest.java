@@ -0,0 +1,44 @@
+package org.bitsoftware.aws.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for decorrelated jitter backoff.
+ */
+public class DecorrelatedJitterBackoffTest
+    extends TestCase
+{
+    private final DecorrelatedJitterBackoff backoff = new DecorrelatedJitterBackoff( 100, 5000 );
+
+    public void testFirstDelayIsBase()
+    {
+        for( int i = 0; i < 100; i++ )
+            assertEquals( 100, backoff.nextDelay( 0 ) );
+    }
+
+    public void testDelayWithinBounds()
+    {
+        for( int i = 0; i < 1000; i++ )
+        {
+            long delay = backoff.nextDelay( 400 );
+            assertTrue( delay >= 100 );
+            assertTrue( delay <= 1200 );
+        }
+    }
+
+    public void testDelayCappedToMax()
+    {
+        for( int i = 0; i < 1000; i++ )
+            assertTrue( backoff.nextDelay( 4000 ) <= 5000 );
+    }
+
+    public void testSdkDelayWithinBounds()
+    {
+        for( int i = 0; i < 1000; i++ )
+        {
+            long delay = backoff.delayBeforeNextRetry( null, null, 10 );
+            assertTrue( delay >= 100 );
+            assertTrue( delay <= 5000 );
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.bitsoftware.aws.util;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for ETag computation.
+ */
+public class ETagHasherTest
+    extends TestCase
+{
+    private File file;
+    private ETagHasher hasher;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        file = File.createTempFile( "etag", ".txt" );
+        Files.write( file.toPath(), "hello world".getBytes( StandardCharsets.US_ASCII ) );
+        hasher = new ETagHasher( 2 );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        hasher.shutdown();
+        file.delete();
+    }
+
+    private static byte[] md5( String s ) throws Exception
+    {
+        return MessageDigest.getInstance( "MD5" ).digest( s.getBytes( StandardCharsets.US_ASCII ) );
+    }
+
+    public void testSingleRequestETagIsMD5() throws Exception
+    {
+        assertEquals( "5eb63bbbe01eeed093cb22bb8f5acdc3", hasher.getETag( file, 0 ).join() );
+    }
+
+    public void testMultipartETag() throws Exception
+    {
+        MessageDigest md = MessageDigest.getInstance( "MD5" );
+        md.update( md5( "hello" ) );
+        md.update( md5( " worl" ) );
+        md.update( md5( "d" ) );
+
+        StringBuilder expected = new StringBuilder();
+        for( byte b : md.digest() )
+            expected.append( String.format( "%02x", b ) );
+        expected.append( "-3" );
+
+        assertEquals( expected.toString(), hasher.getETag( file, 5 ).join() );
+    }
+
+    public void testPartCount()
+    {
+        assertEquals( 0, ETagHasher.getPartCount( "5eb63bbbe01eeed093cb22bb8f5acdc3" ) );
+        assertEquals( 12, ETagHasher.getPartCount( "5eb63bbbe01eeed093cb22bb8f5acdc3-12" ) );
+    }
+}
@@ -0,0 +1,47 @@
+package org.bitsoftware.aws.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for latency percentiles.
+ */
+public class LatencyTrackerTest
+    extends TestCase
+{
+    public void testNoPercentileBeforeMinSamples()
+    {
+        LatencyTracker tracker = new LatencyTracker( 10, 3 );
+        tracker.record( 1 );
+        tracker.record( 2 );
+        assertEquals( -1, tracker.getPercentile( 50 ) );
+
+        tracker.record( 3 );
+        assertEquals( 2, tracker.getPercentile( 50 ) );
+    }
+
+    public void testPercentileIndex()
+    {
+        LatencyTracker tracker = new LatencyTracker( 100, 1 );
+        for( int i = 100; i >= 1; i-- )
+            tracker.record( i );
+
+        assertEquals( 95, tracker.getPercentile( 95 ) );
+        assertEquals( 50, tracker.getPercentile( 50 ) );
+        assertEquals( 100, tracker.getPercentile( 100 ) );
+        assertEquals( 1, tracker.getPercentile( 0 ) );
+    }
+
+    public void testOldestSamplesAreReplaced()
+    {
+        LatencyTracker tracker = new LatencyTracker( 4, 1 );
+        for( int i = 1; i <= 4; i++ )
+            tracker.record( 1000 );
+
+        // wraps around, replacing all four slow samples
+        for( int i = 1; i <= 4; i++ )
+            tracker.record( i );
+
+        assertEquals( 4, tracker.getPercentile( 100 ) );
+        assertEquals( 1, tracker.getPercentile( 0 ) );
+    }
+}
@@ -0,0 +1,80 @@
+package org.bitsoftware.aws.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import com.amazonaws.event.ProgressEvent;
+import com.amazonaws.event.ProgressEventType;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for counting transferred bytes.
+ */
+public class ProgressReporterTest
+    extends TestCase
+{
+    private ProgressReporter reporter;
+
+    @Override
+    protected void setUp()
+    {
+        reporter = new ProgressReporter( 0, new PrintStream( new ByteArrayOutputStream() ) );
+    }
+
+    private static void send( ProgressReporter.Transfer transfer, long bytes )
+    {
+        transfer.progressChanged( new ProgressEvent( ProgressEventType.REQUEST_BYTE_TRANSFER_EVENT, bytes ) );
+    }
+
+    private static void reset( ProgressReporter.Transfer transfer, long bytes )
+    {
+        transfer.progressChanged( new ProgressEvent( ProgressEventType.HTTP_REQUEST_CONTENT_RESET_EVENT, bytes ) );
+    }
+
+    public void testRetriedBytesCountOnce()
+    {
+        ProgressReporter.Transfer transfer = reporter.startTransfer( "f", 100 );
+
+        send( transfer, 60 );
+        reset( transfer, 60 );
+        assertEquals( 0, reporter.getDoneBytes() );
+
+        send( transfer, 100 );
+        assertEquals( 100, reporter.getDoneBytes() );
+
+        transfer.done( true );
+        assertEquals( 100, reporter.getDoneBytes() );
+
+        // a hedged request still sending after the transfer is done
+        send( transfer, 40 );
+        assertEquals( 100, reporter.getDoneBytes() );
+    }
+
+    public void testDoneCountsWholeFile()
+    {
+        ProgressReporter.Transfer transfer = reporter.startTransfer( "f", 100 );
+
+        send( transfer, 30 );
+        transfer.done( true );
+        assertEquals( 100, reporter.getDoneBytes() );
+
+        // a second done is ignored
+        transfer.done( true );
+        assertEquals( 100, reporter.getDoneBytes() );
+    }
+
+    public void testFailedTransferTakesBackBytesSent()
+    {
+        ProgressReporter.Transfer transfer = reporter.startTransfer( "f", 100 );
+
+        send( transfer, 70 );
+        assertEquals( 70, reporter.getDoneBytes() );
+
+        transfer.done( false );
+        assertEquals( 0, reporter.getDoneBytes() );
+
+        send( transfer, 10 );
+        assertEquals( 0, reporter.getDoneBytes() );
+    }
+}
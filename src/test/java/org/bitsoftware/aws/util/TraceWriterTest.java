@@ -0,0 +1,99 @@
+package org.bitsoftware.aws.util;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for writing trace events.
+ */
+public class TraceWriterTest
+    extends TestCase
+{
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        file = File.createTempFile( "trace", ".json" );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        file.delete();
+    }
+
+    private String read() throws Exception
+    {
+        return new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 );
+    }
+
+    public void testEscapedEventsParseAsJson() throws Exception
+    {
+        String name = "a \"quoted\" back\\slash\nnew line\ttab\u0001control";
+
+        Map<String, Object> args = new LinkedHashMap<>();
+        args.put( "key", "k\"e\\y" );
+        args.put( "bytes", 42L );
+        args.put( "ok", true );
+
+        TraceWriter writer = new TraceWriter( file );
+        long now = System.nanoTime();
+        writer.complete( name, "cat\"egory", now, now + 2000000, args );
+        writer.complete( "second", "cat", now, now, null );
+        writer.close();
+        writer.close();
+
+        JsonNode events = new ObjectMapper().readTree( file );
+        assertTrue( events.isArray() );
+        assertEquals( 2, events.size() );
+
+        JsonNode first = events.get( 0 );
+        assertEquals( name, first.get( "name" ).asText() );
+        assertEquals( "cat\"egory", first.get( "cat" ).asText() );
+        assertEquals( "X", first.get( "ph" ).asText() );
+        assertEquals( 2000, first.get( "dur" ).asLong() );
+        assertEquals( "k\"e\\y", first.get( "args" ).get( "key" ).asText() );
+        assertEquals( 42, first.get( "args" ).get( "bytes" ).asLong() );
+        assertTrue( first.get( "args" ).get( "ok" ).asBoolean() );
+
+        assertEquals( "second", events.get( 1 ).get( "name" ).asText() );
+        assertEquals( 0, writer.getDroppedEvents() );
+    }
+
+    public void testEmptyTraceParsesAsJson() throws Exception
+    {
+        new TraceWriter( file ).close();
+
+        assertEquals( 0, new ObjectMapper().readTree( file ).size() );
+    }
+
+    public void testEventsFlushedWhenIdle() throws Exception
+    {
+        TraceWriter writer = new TraceWriter( file );
+        try
+        {
+            long now = System.nanoTime();
+            writer.complete( "idle", "cat", now, now, null );
+
+            // written once no event comes for a second, without closing
+            long deadline = System.currentTimeMillis() + 5000;
+            while( !read().contains( "\"idle\"" ) && System.currentTimeMillis() < deadline )
+                Thread.sleep( 100 );
+
+            assertTrue( read().contains( "\"idle\"" ) );
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
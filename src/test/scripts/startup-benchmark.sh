@@ -0,0 +1,48 @@
+#!/bin/sh
+#
+# Startup time benchmark for the s3upload and s3createfolder tasks.
+#
+# Runs each task in dry run mode, which validates the parameters and builds
+# the S3 client without sending any request, first with plain "java -jar"
+# and then through awsproxy.sh (class data sharing archive and fast start
+# options), and prints the average wall time of each.
+#
+# Build the distribution with the archive first:
+#   mvn package -Pappcds
+#
+# Usage: startup-benchmark.sh [<awsproxy dir>] [<runs>]
+
+DIR=${1:-target/awsproxy}
+RUNS=${2:-5}
+SRC=`dirname "$0"`/../..
+
+now_ms()
+{
+	date +%s%N | cut -c1-13
+}
+
+bench()
+{
+	NAME=$1
+	shift
+
+	TOTAL=0
+	i=0
+	while [ $i -lt $RUNS ]; do
+		START=`now_ms`
+		"$@" > /dev/null 2>&1
+		END=`now_ms`
+		TOTAL=$((TOTAL + END - START))
+		i=$((i + 1))
+	done
+
+	echo "$NAME: $((TOTAL / RUNS)) ms"
+}
+
+CREATEFOLDER="s3createfolder -a:bench -s:bench -r:eu-west-1 -b:bench -f:bench -dryrun"
+UPLOAD="s3upload -a:bench -s:bench -r:eu-west-1 -b:bench -f:$SRC -t -dryrun"
+
+bench "s3createfolder java -jar   " java -jar "$DIR/awsproxy.jar" $CREATEFOLDER
+bench "s3createfolder awsproxy.sh " "$DIR/awsproxy.sh" $CREATEFOLDER
+bench "s3upload       java -jar   " java -jar "$DIR/awsproxy.jar" $UPLOAD
+bench "s3upload       awsproxy.sh " "$DIR/awsproxy.sh" $UPLOAD